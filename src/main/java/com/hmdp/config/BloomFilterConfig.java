@@ -0,0 +1,37 @@
+package com.hmdp.config;
+
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.RedisConstants;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * 布隆过滤器配置
+ * 启动时加载店铺id的布隆过滤器，加载完成后才注册到CacheClient，避免加载期间误拦截
+ */
+@Configuration
+public class BloomFilterConfig {
+
+    @Bean
+    public RedisBloomFilter shopBloomFilter(StringRedisTemplate stringRedisTemplate,
+                                            @Value("${hmdp.bloom.shop.expected-insertions:1000000}") long expectedInsertions,
+                                            @Value("${hmdp.bloom.shop.fpp:0.01}") double fpp) {
+        return new RedisBloomFilter(stringRedisTemplate, RedisConstants.BLOOM_SHOP_KEY,
+                RedisConstants.BLOOM_SHOP_CHANNEL, RedisConstants.BLOOM_SHOP_RELOAD_CHANNEL, expectedInsertions, fpp);
+    }
+
+    @Bean
+    public ApplicationRunner shopBloomFilterLoader(RedisBloomFilter shopBloomFilter, IShopService shopService,
+                                                   CacheClient cacheClient) {
+        return args -> {
+            shopBloomFilter.loadOrRebuild(shopService::listShopIds);
+            cacheClient.registerBloomFilter(RedisConstants.CACHE_SHOP_KEY, shopBloomFilter);
+            cacheClient.registerBloomFilter(RedisConstants.CACHE_SHOP_HASH_KEY, shopBloomFilter);
+        };
+    }
+}
@@ -0,0 +1,25 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.DelegatingCacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 缓存序列化方式配置
+ * hmdp.cache.codec为json时写入JSON，为binary时写入二进制，读取时两种格式都支持
+ * 滚动发布时先以json发布一轮，让所有节点都能读二进制，再切换为binary
+ */
+@Configuration
+public class CacheCodecConfig {
+
+    @Bean
+    public CacheCodec cacheCodec(@Value("${hmdp.cache.codec:json}") String codec,
+                                 @Value("${hmdp.cache.compress-threshold:512}") int compressThreshold) {
+        return new DelegatingCacheCodec("binary".equalsIgnoreCase(codec),
+                new JsonCacheCodec(), new BinaryCacheCodec(compressThreshold));
+    }
+}
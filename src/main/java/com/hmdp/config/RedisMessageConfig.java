@@ -0,0 +1,74 @@
+package com.hmdp.config;
+
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillResultNotifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * redis发布订阅配置
+ * 统一在这里注册各个频道的监听器
+ */
+@Configuration
+public class RedisMessageConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       CacheClient cacheClient,
+                                                                       HotKeyDetector hotKeyDetector,
+                                                                       IShopTypeService shopTypeService,
+                                                                       IVoucherOrderService voucherOrderService,
+                                                                       RedisBloomFilter shopBloomFilter,
+                                                                       SeckillResultNotifier seckillResultNotifier) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        //缓存失效广播，收到后清除本节点的本地缓存
+        container.addMessageListener(
+                (message, pattern) -> cacheClient.evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+        //其它节点重建缓存完成，唤醒本节点等待的请求
+        container.addMessageListener(
+                (message, pattern) -> cacheClient.onRemoteLoaded(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.CACHE_LOADED_CHANNEL));
+        //其它节点新增了店铺，同步写入本节点的布隆过滤器
+        container.addMessageListener(
+                (message, pattern) -> shopBloomFilter.putLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.BLOOM_SHOP_CHANNEL));
+        //其它节点重建了布隆过滤器，本节点从redis重新加载
+        container.addMessageListener(
+                (message, pattern) -> shopBloomFilter.reload(),
+                new ChannelTopic(RedisConstants.BLOOM_SHOP_RELOAD_CHANNEL));
+        //其它节点探测到热点key，本节点一起升级
+        container.addMessageListener(
+                (message, pattern) -> hotKeyDetector.onRemotePromoted(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.CACHE_HOT_KEY_CHANNEL));
+        //店铺类型版本变化，本节点的快照在下次请求时重新加载
+        container.addMessageListener(
+                (message, pattern) -> shopTypeService.onVersionChanged(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.SHOP_TYPE_VERSION_CHANNEL));
+        //其它节点发现秒杀券卖完，本节点直接拒绝后续请求
+        container.addMessageListener(
+                (message, pattern) -> voucherOrderService.onRemoteSoldOut(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+        //秒杀券补货，清除本节点的售罄标记
+        container.addMessageListener(
+                (message, pattern) -> voucherOrderService.resetSoldOut(
+                        Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8)), false),
+                new ChannelTopic(RedisConstants.SECKILL_REPLENISH_CHANNEL));
+        //订单写入数据库，唤醒本节点等待下单结果的请求
+        container.addMessageListener(
+                (message, pattern) -> seckillResultNotifier.onPublished(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.SECKILL_RESULT_CHANNEL));
+        return container;
+    }
+}
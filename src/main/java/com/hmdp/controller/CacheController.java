@@ -0,0 +1,124 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.ICacheWarmUpService;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.TtlPolicy;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存管理控制器，查看缓存运行情况
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheController {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private ICacheWarmUpService cacheWarmUpService;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Resource
+    private TtlPolicy ttlPolicy;
+
+    /**
+     * 查询各级缓存的命中率
+     * @return key前缀 -> 命中统计
+     */
+    @GetMapping("/stats")
+    public Result stats() {
+        return Result.ok(cacheClient.getStats());
+    }
+
+    /**
+     * 在线重建店铺id的布隆过滤器
+     * @return 重建后的过滤器指标
+     */
+    @PostMapping("/bloom/shop/rebuild")
+    public Result rebuildShopBloomFilter() {
+        shopService.rebuildBloomFilter();
+        return Result.ok(cacheClient.getStats());
+    }
+
+    /**
+     * 查询缓存预热进度
+     * @return 状态、各表已读取和已写入的数量
+     */
+    @GetMapping("/warm-up")
+    public Result warmUpProgress() {
+        return Result.ok(cacheWarmUpService.getProgress());
+    }
+
+    /**
+     * 手动触发一次缓存预热，异步执行
+     * @return 预热进度
+     */
+    @PostMapping("/warm-up")
+    public Result warmUp() {
+        if (!cacheWarmUpService.warmUpAsync()) {
+            return Result.fail("缓存正在预热中");
+        }
+        return Result.ok(cacheWarmUpService.getProgress());
+    }
+
+    /**
+     * 查询缓存失效队列的统计
+     * @return 删除数量、失败和重试次数、排队中的key数量
+     */
+    @GetMapping("/invalidation")
+    public Result invalidationMetrics() {
+        return Result.ok(cacheInvalidator.getMetrics());
+    }
+
+    /**
+     * 查询当前的热点key
+     * @return 热点key和本节点估算的QPS，按QPS从高到低排列
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.listHotKeys());
+    }
+
+    /**
+     * 查询缓存重建线程池的运行情况
+     * @return 队列深度、重建耗时、失败次数等
+     */
+    @GetMapping("/rebuild")
+    public Result rebuildMetrics() {
+        return Result.ok(cacheRebuildExecutor.getMetrics());
+    }
+
+    /**
+     * 查询有效期策略的效果
+     * @return 缩短/延长的次数、节省的字节*秒、每秒过期数量的峰值（固定有效期 vs 实际）
+     */
+    @GetMapping("/ttl")
+    public Result ttlMetrics() {
+        return Result.ok(ttlPolicy.getMetrics());
+    }
+}
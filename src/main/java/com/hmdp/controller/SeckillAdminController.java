@@ -0,0 +1,113 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.OrderTimeoutQueue;
+import com.hmdp.utils.SeckillOrderConsumer;
+import com.hmdp.utils.SeckillResultNotifier;
+import com.hmdp.utils.SeckillStockReconciler;
+import com.hmdp.utils.SeckillWaitingRoom;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 秒杀管理控制器，查看秒杀排队和订单写入的运行情况，秒杀券补货
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/seckill")
+public class SeckillAdminController {
+
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    @Resource
+    private SeckillOrderConsumer seckillOrderConsumer;
+
+    @Resource
+    private SeckillStockReconciler seckillStockReconciler;
+
+    @Resource
+    private OrderTimeoutQueue orderTimeoutQueue;
+
+    @Resource
+    private SeckillResultNotifier seckillResultNotifier;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    /**
+     * 查询秒杀排队的统计数据
+     * @return 放行、排队、拒绝的请求次数
+     */
+    @GetMapping("/waiting-room")
+    public Result waitingRoom() {
+        return Result.ok(seckillWaitingRoom.getMetrics());
+    }
+
+    /**
+     * 查询订单写入的统计数据
+     * @return 写入、重复、失败、认领的订单数量
+     */
+    @GetMapping("/orders")
+    public Result orders() {
+        return Result.ok(seckillOrderConsumer.getMetrics());
+    }
+
+    /**
+     * 查询超时取消的统计数据
+     * @return 加入队列、认领、取消的订单数量，时间轮中等待超时的订单数
+     */
+    @GetMapping("/timeout")
+    public Result timeout() {
+        return Result.ok(orderTimeoutQueue.getMetrics());
+    }
+
+    /**
+     * 查询下单结果通知的统计数据
+     * @return 写入的结果数、唤醒和超时的长轮询请求数
+     */
+    @GetMapping("/result")
+    public Result result() {
+        return Result.ok(seckillResultNotifier.getMetrics());
+    }
+
+    /**
+     * 查询库存对账的统计数据
+     * @return 检查进度、确认和修复的漂移、当前存在漂移的券
+     */
+    @GetMapping("/reconcile")
+    public Result reconcile() {
+        return Result.ok(seckillStockReconciler.getMetrics());
+    }
+
+    /**
+     * 立即检查下一页秒杀券
+     * @return 检查后的统计数据
+     */
+    @PostMapping("/reconcile")
+    public Result reconcileNow() {
+        seckillStockReconciler.reconcilePage();
+        return Result.ok(seckillStockReconciler.getMetrics());
+    }
+
+    /**
+     * 秒杀券补货
+     * @param voucherId 秒杀券id
+     * @param count 增加的库存
+     * @return 成功或失败
+     */
+    @PutMapping("/voucher/{id}/stock")
+    public Result replenishStock(@PathVariable("id") Long voucherId, @RequestParam("count") Integer count) {
+        return voucherService.replenishSeckillStock(voucherId, count);
+    }
+}
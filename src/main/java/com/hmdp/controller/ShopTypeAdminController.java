@@ -0,0 +1,47 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.IShopTypeService;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 店铺类型管理，修改后递增版本号，各节点的类型快照随之更新
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/shop-type")
+public class ShopTypeAdminController {
+    @Resource
+    private IShopTypeService typeService;
+
+    /**
+     * 新增店铺类型
+     * @param shopType 店铺类型
+     * @return 店铺类型id
+     */
+    @PostMapping
+    public Result saveShopType(@RequestBody ShopType shopType) {
+        typeService.saveShopType(shopType);
+        return Result.ok(shopType.getId());
+    }
+
+    /**
+     * 修改店铺类型
+     * @param shopType 店铺类型
+     * @return 无
+     */
+    @PutMapping
+    public Result updateShopType(@RequestBody ShopType shopType) {
+        typeService.updateShopType(shopType);
+        return Result.ok();
+    }
+}
@@ -4,10 +4,16 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.Idempotent;
+import com.hmdp.utils.SeckillResultNotifier;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -26,8 +32,34 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private SeckillResultNotifier seckillResultNotifier;
+
     @PostMapping("seckill/{id}")
+    @Idempotent
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询当前用户的秒杀结果，只读redis中的结果缓存
+     * @param voucherId 秒杀券id
+     * @return 下单成功、处理中、失败或者已取消
+     */
+    @GetMapping("seckill/{id}/result")
+    public Result seckillResult(@PathVariable("id") Long voucherId) {
+        return Result.ok(seckillResultNotifier.get(UserHolder.getUser().getId(), voucherId));
+    }
+
+    /**
+     * 长轮询秒杀结果，订单写入数据库后立即返回，等待期间不占用servlet线程
+     * @param voucherId 秒杀券id
+     * @param timeout 最多等待的毫秒数，超时返回处理中，客户端再次请求
+     * @return 秒杀结果
+     */
+    @GetMapping("seckill/{id}/result/wait")
+    public DeferredResult<Result> awaitSeckillResult(@PathVariable("id") Long voucherId,
+                                                     @RequestParam(value = "timeout", defaultValue = "30000") Long timeout) {
+        return seckillResultNotifier.await(UserHolder.getUser().getId(), voucherId, timeout);
+    }
 }
@@ -0,0 +1,31 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 异步下单的结果，由订单消费者写入redis，用户查询或者长轮询获取
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillResult {
+
+    public static final int SUCCESS = 0;
+    public static final int PENDING = 1;
+    public static final int FAILED = -1;
+    public static final int CANCELLED = 2;
+
+    //0：下单成功 1：处理中 -1：下单失败 2：超时未支付已取消
+    private Integer status;
+
+    private Long orderId;
+
+    //失败原因
+    private String message;
+
+    public static SeckillResult pending() {
+        return new SeckillResult(PENDING, null, null);
+    }
+}
@@ -0,0 +1,28 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 秒杀排队的结果
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillTicket {
+
+    public static final int ADMITTED = 0;
+    public static final int WAITING = 1;
+    public static final int REJECTED = -1;
+    public static final int NOT_STARTED = 2;
+
+    //0：已放行 1：排队中 -1：排队人数过多被拒绝 2：秒杀尚未开始，没有取号
+    private Integer status;
+
+    //前面还有多少人
+    private Long position;
+
+    //预计等待的毫秒数
+    private Long waitMillis;
+}
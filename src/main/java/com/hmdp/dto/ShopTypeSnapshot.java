@@ -0,0 +1,37 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照
+ * 保存版本号、类型列表和预先序列化好的响应体，请求时直接输出字节，不再访问redis和解析JSON
+ */
+@Getter
+public class ShopTypeSnapshot {
+
+    //redis中的版本号，管理员修改类型后递增
+    private final long version;
+
+    private final List<ShopType> types;
+
+    //序列化好的Result
+    private final byte[] body;
+
+    //由版本号和响应体的hash组成
+    private final String etag;
+
+    //加载时间，超过最大存活时间后重新加载，作为版本广播丢失时的兜底
+    private final long loadedAt;
+
+    public ShopTypeSnapshot(long version, List<ShopType> types, byte[] body) {
+        this.version = version;
+        this.types = types;
+        this.body = body;
+        this.etag = "\"" + version + "-" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        this.loadedAt = System.currentTimeMillis();
+    }
+}
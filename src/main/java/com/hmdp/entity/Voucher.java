@@ -78,6 +78,18 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * 库存分片数量，超热门的秒杀券把redis中的库存拆到多个key上，不填或者1表示不分片
+     */
+    @TableField(exist = false)
+    private Integer stockShards;
+
+    /**
+     * 记录已下单用户的方式：SET、BITMAP、CHUNKED_BITMAP，不填表示SET；分片库存的券只支持SET
+     */
+    @TableField(exist = false)
+    private String buyerTracking;
+
     /**
      * 生效时间
      */
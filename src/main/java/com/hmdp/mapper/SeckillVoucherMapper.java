@@ -2,6 +2,7 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
 
 /**
  * <p>
@@ -13,4 +14,19 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface SeckillVoucherMapper extends BaseMapper<SeckillVoucher> {
 
+    /**
+     * 扣减库存，库存不足count时不扣减
+     * @param voucherId 秒杀券id
+     * @param count 扣减的数量
+     * @return 修改的行数，0表示库存不足
+     */
+    int decreaseStock(@Param("voucherId") Long voucherId, @Param("count") int count);
+
+    /**
+     * 归还库存，订单取消时调用
+     * @param voucherId 秒杀券id
+     * @param count 归还的数量
+     * @return 修改的行数
+     */
+    int increaseStock(@Param("voucherId") Long voucherId, @Param("count") int count);
 }
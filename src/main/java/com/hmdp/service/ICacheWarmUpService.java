@@ -0,0 +1,28 @@
+package com.hmdp.service;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * 缓存预热服务
+ * </p>
+ */
+public interface ICacheWarmUpService {
+
+    /**
+     * 同步执行一次预热，启动时调用，完成后应用才对外提供服务
+     */
+    void warmUp();
+
+    /**
+     * 异步执行一次预热，已经在预热中时直接返回false
+     * @return 是否开始了新的预热
+     */
+    boolean warmUpAsync();
+
+    /**
+     * 查询预热进度
+     * @return 状态、各表已读取和已写入的数量、耗时
+     */
+    Map<String, Object> getProgress();
+}
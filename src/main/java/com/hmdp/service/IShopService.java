@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -17,4 +19,16 @@ public interface IShopService extends IService<Shop> {
     Result queryByRedis(Long id);
 
     Result updateByCache(Shop shop);
+
+    Result saveShop(Shop shop);
+
+    Result queryShopByType(Integer typeId, Integer current);
+
+    List<Object> listShopIds();
+
+    void rebuildBloomFilter();
+
+    void saveShopsToRedis(List<Shop> shops, long loadMillis);
+
+    Result incrementShopCounter(Long id, String field, int delta);
 }
@@ -1,6 +1,7 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -15,4 +16,12 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result queryListByRedis();
+
+    ShopTypeSnapshot getSnapshot();
+
+    void onVersionChanged(String version);
+
+    void saveShopType(ShopType shopType);
+
+    void updateShopType(ShopType shopType);
 }
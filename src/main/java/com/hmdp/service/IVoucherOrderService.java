@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,15 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
-    Result createVoucherOrder(Long voucherId);
+    Result createVoucherOrder(VoucherOrder voucherOrder);
+
+    List<Result> createVoucherOrders(List<VoucherOrder> orders);
+
+    List<VoucherOrder> cancelTimeoutOrders(List<Long> orderIds);
+
+    void releaseSeckillOrders(List<VoucherOrder> orders);
+
+    void onRemoteSoldOut(String voucherId);
+
+    void resetSoldOut(Long voucherId, boolean broadcast);
 }
@@ -1,11 +1,25 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheEvictAfterCommit;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.TieredCacheable;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +31,64 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    @Resource
+    private IUserService userService;
+
+    @Override
+    public Result queryHotBlog(Integer current) {
+        // 根据用户查询
+        Page<Blog> page = query()
+                .orderByDesc("liked")
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+        // 获取当前页数据
+        List<Blog> records = page.getRecords();
+        // 批量查询用户，一页只需要一次缓存查询
+        List<Long> userIds = records.stream().map(Blog::getUserId).collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOs(userIds);
+        records.forEach(blog -> {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        });
+        return Result.ok(records);
+    }
+
+    /**
+     * 查询笔记详情，笔记和作者分别走各自的缓存
+     * @param id 笔记id
+     * @return 笔记详情
+     */
+    @Override
+    public Result queryBlogById(Long id) {
+        // 通过代理对象调用，缓存注解才能生效
+        IBlogService proxy = (IBlogService) AopContext.currentProxy();
+        Blog blog = proxy.getBlog(id);
+        if (blog == null) {
+            return Result.fail("笔记不存在");
+        }
+        UserDTO user = userService.queryUserDTO(blog.getUserId());
+        if (user != null) {
+            blog.setName(user.getNickName());
+            blog.setIcon(user.getIcon());
+        }
+        return Result.ok(blog);
+    }
+
+    @Override
+    @TieredCacheable(keyPrefix = RedisConstants.CACHE_BLOG_KEY, key = "#id")
+    public Blog getBlog(Long id) {
+        return getById(id);
+    }
+
+    /**
+     * 点赞，修改点赞数后删除笔记的缓存
+     * @param id 笔记id
+     */
+    @Override
+    @CacheEvictAfterCommit(keyPrefix = RedisConstants.CACHE_BLOG_KEY, key = "#id")
+    public void likeBlog(Long id) {
+        update().setSql("liked = liked + 1").eq("id", id).update();
+    }
 }
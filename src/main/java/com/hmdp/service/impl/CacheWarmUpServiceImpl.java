@@ -0,0 +1,270 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.ICacheWarmUpService;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * 缓存预热服务实现类
+ * 启动时按id游标分批读取热门店铺（按评论数取前shop-limit个）、店铺类型和未结束的秒杀券，每批交给写线程池用管道写入redis；
+ * 读取线程在写线程全部占满时阻塞，内存中最多只有 线程数+1 批数据；
+ * 写入按每秒批数限速，避免预热时打满redis。
+ * 作为ApplicationRunner在启动时同步执行，预热完成后应用才会进入ACCEPTING_TRAFFIC状态
+ * </p>
+ */
+@Slf4j
+@Service
+public class CacheWarmUpServiceImpl implements ICacheWarmUpService, ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    //启动时是否预热
+    @Value("${hmdp.cache.warmup.enabled:true}")
+    private boolean enabled;
+
+    //每批读取的行数
+    @Value("${hmdp.cache.warmup.chunk-size:500}")
+    private int chunkSize;
+
+    //写入redis的线程数
+    @Value("${hmdp.cache.warmup.threads:4}")
+    private int threads;
+
+    //每秒最多写入的批数，小于等于0表示不限速
+    @Value("${hmdp.cache.warmup.chunks-per-second:20}")
+    private int chunksPerSecond;
+
+    //最多预热的店铺数，按评论数取最热门的店铺，小于等于0表示整表预热
+    @Value("${hmdp.cache.warmup.shop-limit:10000}")
+    private int shopLimit;
+
+    private final ExecutorService warmUpExecutor = Executors.newSingleThreadExecutor();
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final AtomicReference<String> state = new AtomicReference<>("NOT_STARTED");
+
+    private volatile LocalDateTime startTime;
+
+    private volatile LocalDateTime finishTime;
+
+    private volatile String error;
+
+    //表名 -> [已读取, 已写入]
+    private final Map<String, AtomicLong[]> counters = new ConcurrentHashMap<>();
+
+    //限速：下一批允许写入的时间
+    private final AtomicLong nextWriteNanos = new AtomicLong();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            log.info("缓存预热已关闭");
+            return;
+        }
+        warmUp();
+    }
+
+    @Override
+    public void warmUp() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        counters.clear();
+        startTime = LocalDateTime.now();
+        finishTime = null;
+        error = null;
+        state.set("RUNNING");
+        ExecutorService writers = Executors.newFixedThreadPool(threads);
+        Semaphore permits = new Semaphore(threads);
+        try {
+            warmUpShopTypes();
+            Integer minComments = hotShopThreshold();
+            this.<Shop>warmUpTable("tb_shop", "id", Shop::getId,
+                    (lastId) -> shopService.query().gt("id", lastId).ge(minComments != null, "comments", minComments)
+                            .orderByAsc("id").last("limit " + chunkSize).list(),
+                    shopService::saveShopsToRedis, writers, permits);
+            LocalDateTime now = LocalDateTime.now();
+            this.<SeckillVoucher>warmUpTable("tb_seckill_voucher", "voucher_id", SeckillVoucher::getVoucherId,
+                    (lastId) -> seckillVoucherService.query().gt("voucher_id", lastId).gt("end_time", now)
+                            .orderByAsc("voucher_id").last("limit " + chunkSize).list(),
+                    (chunk, loadMillis) -> seckillVoucherService.saveToRedis(chunk), writers, permits);
+            //等待最后几批写完
+            permits.acquire(threads);
+            permits.release(threads);
+            state.set(error == null ? "FINISHED" : "FAILED");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "interrupted";
+            state.set("FAILED");
+        } catch (RuntimeException e) {
+            log.error("缓存预热失败", e);
+            error = e.getMessage();
+            state.set("FAILED");
+        } finally {
+            writers.shutdown();
+            finishTime = LocalDateTime.now();
+            running.set(false);
+            log.info("缓存预热结束：{}", getProgress());
+        }
+    }
+
+    @Override
+    public boolean warmUpAsync() {
+        if (running.get()) {
+            return false;
+        }
+        warmUpExecutor.submit(this::warmUp);
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> getProgress() {
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("state", state.get());
+        progress.put("startTime", startTime);
+        progress.put("finishTime", finishTime);
+        if (error != null) {
+            progress.put("error", error);
+        }
+        Map<String, Object> tables = new LinkedHashMap<>();
+        counters.forEach((table, counter) -> {
+            Map<String, Long> count = new LinkedHashMap<>();
+            count.put("read", counter[0].get());
+            count.put("written", counter[1].get());
+            tables.put(table, count);
+        });
+        progress.put("tables", tables);
+        return progress;
+    }
+
+    /**
+     * 店铺类型数据量很小，整表写入一个key
+     */
+    private void warmUpShopTypes() {
+        AtomicLong[] counter = counterOf("tb_shop_type");
+        List<ShopType> typeList = shopTypeService.query().orderByAsc("sort").list();
+        counter[0].addAndGet(typeList.size());
+        if (!typeList.isEmpty()) {
+            cacheClient.set(RedisConstants.CACHE_SHOP_LIST, typeList, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
+        counter[1].addAndGet(typeList.size());
+    }
+
+    /**
+     * 热门店铺的评论数下限：第shop-limit热门的店铺的评论数，评论数相同的店铺一起预热
+     * @return 不限制或者店铺数不超过shop-limit时返回null，整表预热
+     */
+    private Integer hotShopThreshold() {
+        if (shopLimit <= 0) {
+            return null;
+        }
+        Shop last = shopService.query().select("comments").orderByDesc("comments")
+                .last("limit " + (shopLimit - 1) + ",1").one();
+        return last == null ? null : last.getComments();
+    }
+
+    /**
+     * 按主键游标分批读取一张表，每批连同读取耗时提交给写线程池
+     * 不使用offset分页，避免表大时越往后越慢
+     */
+    private <T> void warmUpTable(String table, String idColumn, Function<T, Long> idGetter,
+                                 Function<Long, List<T>> chunkLoader, BiConsumer<List<T>, Long> chunkWriter,
+                                 ExecutorService writers, Semaphore permits) throws InterruptedException {
+        AtomicLong[] counter = counterOf(table);
+        long lastId = 0;
+        while (error == null) {
+            long begin = System.currentTimeMillis();
+            List<T> chunk = chunkLoader.apply(lastId);
+            long loadMillis = System.currentTimeMillis() - begin;
+            if (chunk.isEmpty()) {
+                break;
+            }
+            counter[0].addAndGet(chunk.size());
+            lastId = idGetter.apply(chunk.get(chunk.size() - 1));
+            //写线程都在忙时阻塞读取，控制内存占用
+            permits.acquire();
+            writers.execute(() -> {
+                try {
+                    acquireRate();
+                    chunkWriter.accept(chunk, loadMillis);
+                    counter[1].addAndGet(chunk.size());
+                } catch (RuntimeException e) {
+                    log.error("缓存预热写入{}失败", table, e);
+                    error = table + ": " + e.getMessage();
+                } finally {
+                    permits.release();
+                }
+            });
+            if (chunk.size() < chunkSize) {
+                break;
+            }
+        }
+        log.debug("{}读取完成，按{}共读取{}行", table, idColumn, counter[0].get());
+    }
+
+    /**
+     * 简单的匀速限流：每批之间至少间隔 1秒/chunksPerSecond
+     */
+    private void acquireRate() {
+        if (chunksPerSecond <= 0) {
+            return;
+        }
+        long interval = TimeUnit.SECONDS.toNanos(1) / chunksPerSecond;
+        long now = System.nanoTime();
+        long slot = nextWriteNanos.getAndAccumulate(now, (next, current) -> Math.max(next, current) + interval);
+        long wait = slot - now;
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private AtomicLong[] counterOf(String table) {
+        return counters.computeIfAbsent(table, t -> new AtomicLong[]{new AtomicLong(), new AtomicLong()});
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        warmUpExecutor.shutdownNow();
+    }
+}
@@ -5,17 +5,139 @@ import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BuyerTracking;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillShards;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
+ * 定时把即将开始的秒杀券（库存、开始时间、结束时间）预加载到redis的hash中，
+ * 秒杀脚本在redis中原子地判断时间和库存；活动结束一段时间后相关的key自动过期
  * </p>
  *
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    //提前多久预加载即将开始的秒杀券
+    @Value("${hmdp.seckill.preload.lead-seconds:600}")
+    private long leadSeconds;
+
+    //活动结束后多久删除redis中的数据
+    @Value("${hmdp.seckill.preload.evict-grace-seconds:3600}")
+    private long evictGraceSeconds;
+
+    @Value("${hmdp.seckill.preload.chunk-size:500}")
+    private int chunkSize;
+
+    /**
+     * 预加载即将开始和正在进行的秒杀券，按voucher_id分批读取
+     */
+    @Scheduled(initialDelayString = "${hmdp.seckill.preload.interval-ms:60000}",
+            fixedDelayString = "${hmdp.seckill.preload.interval-ms:60000}")
+    public void preloadUpcoming() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime until = now.plusSeconds(leadSeconds);
+            long lastId = 0;
+            int total = 0;
+            while (true) {
+                List<SeckillVoucher> chunk = query().gt("voucher_id", lastId)
+                        .le("begin_time", until).gt("end_time", now)
+                        .orderByAsc("voucher_id").last("limit " + chunkSize).list();
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                saveToRedis(chunk);
+                total += chunk.size();
+                lastId = chunk.get(chunk.size() - 1).getVoucherId();
+                if (chunk.size() < chunkSize) {
+                    break;
+                }
+            }
+            log.debug("预加载秒杀券{}张", total);
+        } catch (RuntimeException e) {
+            log.error("预加载秒杀券失败", e);
+        }
+    }
+
+    /**
+     * 秒杀券写入redis
+     * 库存使用HSETNX写入，redis中已有的库存是扣减过的，不能被数据库的值覆盖；开始和结束时间每次覆盖，
+     * 所有相关的key在活动结束evict-grace-seconds后过期；预加载时还不存在的key（已下单用户、归还记录等）
+     * 由lua脚本在第一次写入时按秒杀券或分片库存剩余的有效期设置过期时间。
+     * 分片库存的券只在分片的key中扣减库存，hash中不保存stock，避免排队时读到不会变化的库存
+     * @param vouchers 秒杀券
+     */
+    @Override
+    public void saveToRedis(List<SeckillVoucher> vouchers) {
+        List<String> shardValues = stringRedisTemplate.opsForValue().multiGet(vouchers.stream()
+                .map(v -> RedisConstants.SECKILL_SHARDS_KEY + v.getVoucherId()).collect(Collectors.toList()));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < vouchers.size(); i++) {
+                SeckillVoucher voucher = vouchers.get(i);
+                Long voucherId = voucher.getVoucherId();
+                String shardValue = shardValues == null ? null : shardValues.get(i);
+                int shards = shardValue == null ? 1 : Integer.parseInt(shardValue);
+                byte[] key = bytes(RedisConstants.SECKILL_VOUCHER_KEY + voucherId);
+                if (shards > 1) {
+                    connection.hDel(key, bytes("stock"));
+                } else {
+                    connection.hSetNX(key, bytes("stock"), bytes(voucher.getStock().toString()));
+                }
+                Map<byte[], byte[]> window = new HashMap<>(4);
+                window.put(bytes("begin"), bytes(String.valueOf(toMillis(voucher.getBeginTime()))));
+                window.put(bytes("end"), bytes(String.valueOf(toMillis(voucher.getEndTime()))));
+                connection.hMSet(key, window);
+                long expireAt = toMillis(voucher.getEndTime()) + TimeUnit.SECONDS.toMillis(evictGraceSeconds);
+                connection.pExpireAt(key, expireAt);
+                connection.pExpireAt(bytes(RedisConstants.SECKILL_ORDER_KEY + voucherId), expireAt);
+                connection.pExpireAt(bytes(BuyerTracking.bitmapKey(voucherId)), expireAt);
+                connection.pExpireAt(bytes(BuyerTracking.chunkIndexKey(voucherId)), expireAt);
+                connection.pExpireAt(bytes(RedisConstants.SECKILL_TICKET_KEY + voucherId), expireAt);
+                connection.pExpireAt(bytes(RedisConstants.SECKILL_ROOM_KEY + voucherId), expireAt);
+                connection.pExpireAt(bytes(RedisConstants.SECKILL_RELEASED_KEY + voucherId), expireAt);
+                if (shards > 1) {
+                    connection.pExpireAt(bytes(RedisConstants.SECKILL_SHARDS_KEY + voucherId), expireAt);
+                    for (int s = 0; s < shards; s++) {
+                        connection.pExpireAt(bytes(SeckillShards.stockKey(voucherId, s)), expireAt);
+                        connection.pExpireAt(bytes(SeckillShards.orderKey(voucherId, s)), expireAt);
+                        connection.pExpireAt(bytes(SeckillShards.releasedKey(voucherId, s)), expireAt);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
 }
@@ -5,25 +5,42 @@ import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.SystemConstants;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.connection.stream.RecordId;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -42,70 +59,57 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private RedisBloomFilter shopBloomFilter;
+
+    //列表页展示的店铺字段，hash结构下只读取这些字段
+    private static final List<String> SHOP_LISTING_FIELDS = Arrays.asList(
+            "id", "name", "typeId", "images", "area", "address", "x", "y", "avgPrice", "sold", "comments", "score");
+
+    //可以原子自增的计数字段 -> 数据库列名
+    private static final Map<String, String> SHOP_COUNTER_COLUMNS = new HashMap<>();
+    static {
+        SHOP_COUNTER_COLUMNS.put("sold", "sold");
+        SHOP_COUNTER_COLUMNS.put("comments", "comments");
+    }
+
+    //店铺详情使用的缓存策略，逻辑过期类的策略需要先预热缓存
+    @Value("${hmdp.cache.shop.strategy:MUTEX}")
+    private CacheStrategy shopCacheStrategy;
+
     @Override
     public Result queryByRedis(Long id) {
-        //解决缓存穿透问题
-        Shop shop = cacheClient.queryShopPassThrough(RedisConstants.CACHE_SHOP_KEY,id,Shop.class,RedisConstants.CACHE_SHOP_TTL,TimeUnit.MINUTES,(o) -> getById(o));
-        //解决缓存击穿问题
-//        Shop shop = cacheClient.queryWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY,id,Shop.class,RedisConstants.CACHE_SHOP_TTL,TimeUnit.MINUTES, this::getById);
+        Shop shop;
+        switch (shopCacheStrategy) {
+            case PASS_THROUGH:
+                //解决缓存穿透问题
+                shop = cacheClient.queryShopPassThrough(RedisConstants.CACHE_SHOP_KEY,id,Shop.class,RedisConstants.CACHE_SHOP_TTL,TimeUnit.MINUTES,(o) -> getById(o));
+                break;
+            case LOGICAL_EXPIRE:
+                //解决缓存击穿问题
+                shop = cacheClient.queryWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY,id,Shop.class,RedisConstants.CACHE_SHOP_TTL,TimeUnit.MINUTES, this::getById);
+                break;
+            case XFETCH:
+                //逻辑过期的基础上提前刷新，避免集中重建
+                shop = cacheClient.queryWithXFetch(RedisConstants.CACHE_SHOP_KEY,id,Shop.class,RedisConstants.CACHE_SHOP_TTL,TimeUnit.MINUTES, this::getById);
+                break;
+            case HASH:
+                //按字段保存，计数字段可以单独修改
+                shop = cacheClient.queryHash(RedisConstants.CACHE_SHOP_HASH_KEY,id,Shop.class,RedisConstants.CACHE_SHOP_TTL,TimeUnit.MINUTES, this::getById);
+                break;
+            default:
+                //解决缓存穿透问题，同时使用互斥锁解决缓存击穿问题
+                shop = cacheClient.queryWithMutex(RedisConstants.CACHE_SHOP_KEY,id,Shop.class,RedisConstants.CACHE_SHOP_TTL,TimeUnit.MINUTES,(o) -> getById(o));
+        }
         if(shop == null){
             return Result.fail("店铺信息不存在");
         }
         return Result.ok(shop);
     }
 
-    /**
-     * 通过redis查询店铺
-     * 用户进行查询操作时，先查询缓存，缓存存在直接返回，不存在则查数据库
-     * 添加了互斥锁，避免出现缓存击穿问题
-     * 添加锁之后，如果查询的数据不再缓存中，就获取锁然后查询数据库
-     * @param id
-     * @return
-     */
-//    public Shop queryShopMutex(Long id){
-//        String key = RedisConstants.CACHE_SHOP_KEY + id;
-//        //查询缓存
-//        String shopJson = stringRedisTemplate.opsForValue().get(key);
-//        //判断是否存在
-//        if(StrUtil.isNotBlank(shopJson)){
-//            Shop shop = BeanUtil.toBean(shopJson,Shop.class);
-//            return shop;
-//        }
-//        //判断命中是否为空值
-//        if (shopJson != null) {
-//            //为空值返回错误信息
-//            return null;
-//        }
-//        //缓存重建，获取锁
-//        Shop shop = null;
-//        try {
-//        boolean b = tryLock(RedisConstants.LOCK_SHOP_KEY);
-//            if(!b){
-//                //获取失败，休眠一段时间再尝试获取
-//                Thread.sleep(50);
-//                queryShopMutex(id);
-//            }
-//            //获取锁成功就去数据库查
-//            shop = getById(id);
-//            //数据库中没有该店铺信息就返回错误提示
-//            if(shop == null){
-//                //若店铺为空，将空值存入redis中，有效期两分钟
-//                stringRedisTemplate.opsForValue().set(key,"",RedisConstants.CACHE_NULL_TTL,TimeUnit.MINUTES);
-//                return null;
-//            }
-//            //数据库中存在就把该店铺信息写入缓存中
-//            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop),RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-//        } catch (InterruptedException e) {
-//            throw new RuntimeException(e);
-//        } finally {
-//            //释放锁
-//            unLock(RedisConstants.LOCK_SHOP_KEY);
-//        }
-//        //返回查讯到的数据
-//        return shop;
-//    }
-
-
     /**
      * 使用redis对店铺信息进行缓存
      * 修改店铺时先写数据库再删除缓存
@@ -122,22 +126,156 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         //先写数据库
         updateById(shop);
-        //删除缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        if (shopCacheStrategy == CacheStrategy.HASH) {
+            //事务提交后只覆盖传入的字段，失败时删除整个hash；
+            //覆盖时递增hash的版本号，提交前读到旧数据的请求回填时发现版本号变化会放弃写入
+            String key = RedisConstants.CACHE_SHOP_HASH_KEY + id;
+            afterCommit(() -> {
+                try {
+                    cacheClient.updateHashFields(key, shop);
+                } catch (RuntimeException e) {
+                    cacheInvalidator.invalidate(key);
+                }
+            });
+            return Result.ok();
+        }
+        //事务提交后再删除缓存（延迟双删，失败进入重试队列），同时通知所有节点清除本地缓存
+        cacheInvalidator.invalidateAfterCommit(RedisConstants.CACHE_SHOP_KEY + id);
 //        //删除之后再写入缓存
 //        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id,JSONUtil.toJsonStr(shop));
         return Result.ok();
     }
 
-//    public void saveShopToRedis(Long id,Long expireSeconds){
-//        //查询数据库的店铺信息
-//        Shop shop = getById(id);
-//        //封装逻辑过期时间
-//        RedisData redisData = new RedisData();
-//        redisData.setData(shop);
-//        //设置过期时间
-//        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-//        //写入redis
-//        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY,JSONUtil.toJsonStr(redisData));
-//    }
+    /**
+     * 新增店铺
+     * 写入数据库后把店铺id加入布隆过滤器，否则新店铺会被过滤器拦截
+     * @param shop
+     * @return
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        shopBloomFilter.put(shop.getId());
+        // 返回店铺id
+        return Result.ok(shop.getId());
+    }
+
+    /**
+     * 根据商铺类型分页查询商铺信息
+     * 分页只查询id（走type_id索引即可完成），店铺详情通过缓存批量获取
+     * @param typeId 商铺类型
+     * @param current 页码
+     * @return 商铺列表
+     */
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current) {
+        // 根据类型分页查询id
+        Page<Shop> page = query()
+                .select("id")
+                .eq("type_id", typeId)
+                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+        List<Long> ids = page.getRecords().stream().map(Shop::getId).collect(Collectors.toList());
+        Function<Collection<Long>, Map<Long, Shop>> dbFeedBack =
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+        if (shopCacheStrategy == CacheStrategy.HASH) {
+            // 只读取列表页展示的字段
+            Map<Long, Shop> shopMap = cacheClient.queryHashFields(RedisConstants.CACHE_SHOP_HASH_KEY, ids, Shop.class,
+                    SHOP_LISTING_FIELDS, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES, dbFeedBack);
+            return Result.ok(new ArrayList<>(shopMap.values()));
+        }
+        // 批量查询缓存，未命中的一次性查询数据库；和店铺详情共用key，按详情的缓存策略读写
+        boolean logicalExpire = shopCacheStrategy == CacheStrategy.LOGICAL_EXPIRE || shopCacheStrategy == CacheStrategy.XFETCH;
+        Map<Long, Shop> shopMap = cacheClient.queryBatch(RedisConstants.CACHE_SHOP_KEY, ids, Shop.class,
+                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES, dbFeedBack, logicalExpire);
+        // 返回数据
+        return Result.ok(new ArrayList<>(shopMap.values()));
+    }
+
+    /**
+     * 查询全部店铺id，只查id一列
+     * @return 店铺id列表
+     */
+    @Override
+    public List<Object> listShopIds() {
+        return listObjs(new QueryWrapper<Shop>().select("id"));
+    }
+
+    /**
+     * 在线重建店铺的布隆过滤器，删除店铺后可以调用，清除已经不存在的id
+     */
+    @Override
+    public void rebuildBloomFilter() {
+        shopBloomFilter.rebuild(this::listShopIds);
+    }
+
+    /**
+     * 批量把店铺写入redis，用于缓存预热
+     * 按当前的缓存策略决定写普通数据还是逻辑过期数据，保证和查询时的格式一致
+     * @param shops 店铺列表
+     * @param loadMillis 查询这批店铺的数据库耗时，平摊到每个店铺作为逻辑过期数据的重建耗时
+     */
+    @Override
+    public void saveShopsToRedis(List<Shop> shops, long loadMillis) {
+        Map<Long, Shop> shopMap = shops.stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+        if (shopCacheStrategy == CacheStrategy.HASH) {
+            cacheClient.setHashBatch(RedisConstants.CACHE_SHOP_HASH_KEY, shopMap, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            return;
+        }
+        boolean logicalExpire = shopCacheStrategy == CacheStrategy.LOGICAL_EXPIRE || shopCacheStrategy == CacheStrategy.XFETCH;
+        //批量查询平摊到每行的耗时比单条查询小，至少按1毫秒算
+        long rebuildCost = shops.isEmpty() ? 1 : Math.max(1, loadMillis / shops.size());
+        cacheClient.setBatch(RedisConstants.CACHE_SHOP_KEY, shopMap, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES,
+                logicalExpire, rebuildCost);
+    }
+
+    /**
+     * 修改店铺的计数字段（销量、评论数）
+     * 数据库使用 field = field + delta 更新，事务提交后对缓存的hash字段HINCRBY，不需要删除整条缓存
+     * @param id 店铺id
+     * @param field 计数字段，sold或comments
+     * @param delta 增量
+     * @return 无
+     */
+    @Override
+    @Transactional
+    public Result incrementShopCounter(Long id, String field, int delta) {
+        String column = SHOP_COUNTER_COLUMNS.get(field);
+        if (column == null) {
+            return Result.fail("不支持的计数字段");
+        }
+        boolean success = update().setSql(column + " = " + column + " + " + delta).eq("id", id).update();
+        if (!success) {
+            return Result.fail("店铺信息不存在");
+        }
+        if (shopCacheStrategy == CacheStrategy.HASH) {
+            String key = RedisConstants.CACHE_SHOP_HASH_KEY + id;
+            afterCommit(() -> {
+                try {
+                    cacheClient.incrementHashField(key, field, delta);
+                } catch (RuntimeException e) {
+                    cacheInvalidator.invalidate(key);
+                }
+            });
+        } else {
+            cacheInvalidator.invalidateAfterCommit(RedisConstants.CACHE_SHOP_KEY + id);
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 在当前事务提交后执行，没有事务时直接执行
+     */
+    private void afterCommit(Runnable task) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                task.run();
+            }
+        });
+    }
 }
@@ -1,50 +1,150 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>
  * 服务实现类
+ * 店铺类型几乎不变，在内存中保存一份带版本号的快照，
+ * 管理员修改类型后递增redis中的版本号并广播，各节点收到后重新加载
  * </p>
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    @Resource
+    private CacheClient cacheClient;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ObjectMapper objectMapper;
+
+    //快照的最大存活时间，版本广播丢失时最多过这么久也会重新加载
+    @Value("${hmdp.cache.shop-type.snapshot-max-age-seconds:600}")
+    private long snapshotMaxAgeSeconds;
+
+    private volatile ShopTypeSnapshot snapshot;
+
+    //收到的广播中最新的版本号，快照版本比它小就需要重新加载
+    private final AtomicLong latestVersion = new AtomicLong();
+
     @Override
     public Result queryListByRedis() {
-        //缓存中查询list
-        String shopJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_LIST);
-        //如果不为空证明缓存中有，返回
-        if (StrUtil.isNotBlank(shopJson)) {
-            List<ShopType> shopList = JSONUtil.toList(shopJson, ShopType.class);
-            return Result.ok(shopList);
-        }
-        //缓存中没有就到数据中查询
-        List<ShopType> shopTypeList = query().orderByAsc("sort").list();
+        List<ShopType> shopTypeList = getSnapshot().getTypes();
         //判断数据是否存在
-        if (shopTypeList.isEmpty() || shopTypeList == null) {
+        if (shopTypeList.isEmpty()) {
             return Result.fail("该店铺类型不存在");
         }
-        String json = JSONUtil.toJsonStr(shopTypeList);
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_LIST, json);
         return Result.ok(shopTypeList);
     }
+
+    /**
+     * 获取当前的快照，不存在或者已经过期时重新加载
+     * @return 店铺类型快照
+     */
+    @Override
+    public ShopTypeSnapshot getSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null && !isStale(current)) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            if (current == null || isStale(current)) {
+                current = loadSnapshot();
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * 收到版本变化的广播，记录最新版本号，下次请求时发现快照版本偏旧就重新加载
+     * @param version 新的版本号
+     */
+    @Override
+    public void onVersionChanged(String version) {
+        long latest = latestVersion.accumulateAndGet(Long.parseLong(version), Math::max);
+        log.debug("shop type version changed to {}", latest);
+    }
+
+    /**
+     * 新增店铺类型
+     * @param shopType 店铺类型
+     */
+    @Override
+    public void saveShopType(ShopType shopType) {
+        save(shopType);
+        bumpVersion();
+    }
+
+    /**
+     * 修改店铺类型
+     * @param shopType 店铺类型
+     */
+    @Override
+    public void updateShopType(ShopType shopType) {
+        updateById(shopType);
+        bumpVersion();
+    }
+
+    /**
+     * 先删除redis中的列表，再递增版本号并广播，各节点重新加载时读到的一定是新数据
+     */
+    private void bumpVersion() {
+        cacheClient.delete(RedisConstants.CACHE_SHOP_LIST);
+        Long version = stringRedisTemplate.opsForValue().increment(RedisConstants.SHOP_TYPE_VERSION_KEY);
+        onVersionChanged(String.valueOf(version));
+        stringRedisTemplate.convertAndSend(RedisConstants.SHOP_TYPE_VERSION_CHANNEL, String.valueOf(version));
+    }
+
+    private ShopTypeSnapshot loadSnapshot() {
+        //先读版本号再读数据，读数据期间版本变化时快照的版本偏旧，收到广播后会再加载一次
+        String version = stringRedisTemplate.opsForValue().get(RedisConstants.SHOP_TYPE_VERSION_KEY);
+        //快照本身就是本地缓存，先清掉CacheClient中的本地副本，只查询redis，没有再到数据库中查询，
+        //避免用旧的本地副本构建出新版本号的快照
+        cacheClient.evictLocal(RedisConstants.CACHE_SHOP_LIST);
+        List<ShopType> shopTypeList = cacheClient.queryListPassThrough(RedisConstants.CACHE_SHOP_LIST, ShopType.class,
+                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES, () -> query().orderByAsc("sort").list());
+        List<ShopType> types = Collections.unmodifiableList(shopTypeList);
+        Result result = types.isEmpty() ? Result.fail("该店铺类型不存在") : Result.ok(types);
+        try {
+            long current = version == null ? 0 : Long.parseLong(version);
+            latestVersion.accumulateAndGet(current, Math::max);
+            return new ShopTypeSnapshot(current, types,
+                    objectMapper.writeValueAsBytes(result));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("serialize shop types failed", e);
+        }
+    }
+
+    private boolean isStale(ShopTypeSnapshot current) {
+        return current.getVersion() < latestVersion.get()
+                || System.currentTimeMillis() - current.getLoadedAt() > TimeUnit.SECONDS.toMillis(snapshotMaxAgeSeconds);
+    }
 }
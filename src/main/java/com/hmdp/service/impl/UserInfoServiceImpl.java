@@ -4,6 +4,8 @@ import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.TieredCacheable;
 import org.springframework.stereotype.Service;
 
 /**
@@ -17,4 +19,15 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    /**
+     * 查询用户详情，没有详情的用户也会缓存空值
+     * @param userId 用户id
+     * @return 用户详情
+     */
+    @Override
+    @TieredCacheable(keyPrefix = RedisConstants.CACHE_USER_INFO_KEY, key = "#userId")
+    public UserInfo queryUserInfo(Long userId) {
+        return getById(userId);
+    }
+
 }
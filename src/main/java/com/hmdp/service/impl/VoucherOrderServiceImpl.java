@@ -2,30 +2,56 @@ package com.hmdp.service.impl;
 
 import com.hmdp.config.RedissonConfig;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillTicket;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.BuyerTracking;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillShards;
+import com.hmdp.utils.SeckillWaitingRoom;
 import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.StreamRecords;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -35,12 +61,16 @@ import java.util.Collections;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
     @Resource
     private ISeckillVoucherService voucherService;
 
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
     @Resource
     private RedisIdWorker redisIdWorker;
 
@@ -50,23 +80,262 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedissonClient redissonClient;
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    //本节点记录的已售罄秒杀券：券id -> 标记的过期时间
+    //过期后重新执行一次lua脚本确认，补货广播丢失时最多影响这么久
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @Value("${hmdp.seckill.sold-out-ttl-ms:10000}")
+    private long soldOutTtlMillis;
+
+    //秒杀券的库存分片数量，1表示没有分片，券创建后不会变化，本地缓存一段时间
+    private final LocalCache<Long, Integer> stockShards = new LocalCache<>(10000, 60, TimeUnit.SECONDS);
+
+    //分片秒杀券的开始和结束时间，分片脚本不能访问秒杀券的hash，在本地判断
+    private final LocalCache<Long, long[]> timeWindows = new LocalCache<>(10000, 60, TimeUnit.SECONDS);
+
+    //返回 {结果, 订单序列号}
+    private static final DefaultRedisScript<List> SECKILL_SCRIPT;
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(List.class);
+    }
+
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
+    static {
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_TAKE_SCRIPT;
+    static {
+        SECKILL_SHARD_TAKE_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_shard_take.lua"));
+        SECKILL_SHARD_TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> SECKILL_CANCEL_SCRIPT;
+    static {
+        SECKILL_CANCEL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_CANCEL_SCRIPT.setLocation(new ClassPathResource("seckill_cancel.lua"));
+        SECKILL_CANCEL_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_CANCEL_SCRIPT;
+    static {
+        SECKILL_SHARD_CANCEL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_CANCEL_SCRIPT.setLocation(new ClassPathResource("seckill_shard_cancel.lua"));
+        SECKILL_SHARD_CANCEL_SCRIPT.setResultType(Long.class);
     }
 
     @Override
     public Result seckillVoucher(Long voucherId) {
         //获取用户
         UserDTO user = UserHolder.getUser();
-        //执行lua脚本，对秒杀券下单
-        stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.emptyList(),voucherId.toString(),user.getId().toString());
-        //判断返回结果 1：库存不足 2：用户已下过单 0：可以下单
+        //本节点已经知道卖完的券直接返回，不再访问redis
+        if (isSoldOut(voucherId)) {
+            return Result.fail("秒杀券库存不足");
+        }
+        //先排队，被放行后才执行秒杀
+        SeckillTicket ticket = seckillWaitingRoom.enter(voucherId, user.getId());
+        if (ticket.getStatus() == SeckillTicket.NOT_STARTED) {
+            return Result.fail("秒杀活动尚未开始");
+        }
+        if (ticket.getStatus() == SeckillTicket.REJECTED) {
+            return Result.fail("排队人数过多，秒杀券已经抢完");
+        }
+        if (ticket.getStatus() == SeckillTicket.WAITING) {
+            return new Result(false, "排队中", ticket, null);
+        }
+        int shards = getStockShards(voucherId);
+        if (shards > 1) {
+            return seckillSharded(voucherId, user.getId(), shards);
+        }
+        //热点秒杀券先看本地的库存副本，已经卖完就不用再访问redis
+        String voucherKey = RedisConstants.SECKILL_VOUCHER_KEY + voucherId;
+        if (hotKeyDetector.record(voucherKey)) {
+            byte[] stock = hotKeyDetector.getReplica(voucherKey);
+            if (stock == null) {
+                Object value = stringRedisTemplate.opsForHash().get(voucherKey, "stock");
+                if (value != null) {
+                    stock = value.toString().getBytes(StandardCharsets.UTF_8);
+                    hotKeyDetector.putReplica(voucherKey, stock);
+                }
+            }
+            if (stock != null && Long.parseLong(new String(stock, StandardCharsets.UTF_8)) <= 0) {
+                markSoldOut(voucherId);
+                return Result.fail("秒杀券库存不足");
+            }
+        }
+        //执行lua脚本，对秒杀券下单，判断时间、扣减库存、生成订单id、写入订单stream在一次网络往返中完成
+        long timeStamp = redisIdWorker.timestamp();
+        //已下单用户可能记录在SET、位图或者分块位图中，由秒杀券hash中的buyers字段决定，三种key都传给脚本
+        Long userId = user.getId();
+        List<String> keys = Arrays.asList(voucherKey, RedisConstants.SECKILL_ORDER_KEY + voucherId,
+                redisIdWorker.counterKey("order"), RedisConstants.SECKILL_ORDER_STREAM,
+                BuyerTracking.bitmapKey(voucherId), BuyerTracking.chunkKey(voucherId, userId),
+                BuyerTracking.chunkIndexKey(voucherId));
+        List<?> result = stringRedisTemplate.execute(SECKILL_SCRIPT, keys, voucherId.toString(),
+                userId.toString(), String.valueOf(timeStamp), String.valueOf(System.currentTimeMillis()),
+                String.valueOf(BuyerTracking.chunk(userId)), String.valueOf(BuyerTracking.chunkOffset(userId)));
+        //判断返回结果 1：库存不足 2：用户已下过单 3：秒杀尚未开始 4：秒杀已经结束 0：可以下单
+        int code = ((Long) result.get(0)).intValue();
+        if (code == 3) {
+            return Result.fail("秒杀活动尚未开始");
+        }
+        if (code == 4) {
+            return Result.fail("秒杀活动已经结束");
+        }
+        if (code == 1) {
+            markSoldOut(voucherId);
+            return Result.fail("秒杀券库存不足");
+        }
+        if (code == 2) {
+            return Result.fail("一个用户只能购买一张");
+        }
+        //订单由SeckillOrderConsumer异步写入数据库，返回订单ID
+        return Result.ok(RedisIdWorker.compose(timeStamp, (Long) result.get(1)));
+    }
 
-        //返回订单ID
-        return Result.ok(0);
+    /**
+     * 分片库存的秒杀
+     * 先在用户的主分片上判断一人一单并扣减库存，主分片卖完时依次到后面的分片扣减，
+     * 扣减成功后生成订单id并写入订单stream；每个脚本只访问一个分片的key，在集群中不会跨slot
+     */
+    private Result seckillSharded(Long voucherId, Long userId, int shards) {
+        //分片的key不在同一个slot，开始和结束时间在本地缓存中判断
+        long[] window = getTimeWindow(voucherId);
+        long now = System.currentTimeMillis();
+        if (window == null || now < window[0]) {
+            return Result.fail("秒杀活动尚未开始");
+        }
+        if (now > window[1]) {
+            return Result.fail("秒杀活动已经结束");
+        }
+        int home = SeckillShards.homeShard(userId, shards);
+        String orderKey = SeckillShards.orderKey(voucherId, home);
+        //0：主分片扣减成功 2：用户已下过单 3：主分片卖完，用户已经占住
+        Long code = stringRedisTemplate.execute(SECKILL_SHARD_SCRIPT,
+                Arrays.asList(SeckillShards.stockKey(voucherId, home), orderKey), userId.toString());
+        if (code == 2) {
+            return Result.fail("一个用户只能购买一张");
+        }
+        int taken = code == 0 ? home : -1;
+        for (int i = 1; taken < 0 && i < shards; i++) {
+            int shard = (home + i) % shards;
+            Long took = stringRedisTemplate.execute(SECKILL_SHARD_TAKE_SCRIPT,
+                    Collections.singletonList(SeckillShards.stockKey(voucherId, shard)));
+            if (took == 0) {
+                taken = shard;
+            }
+        }
+        if (taken < 0) {
+            //所有分片都卖完了，释放占住的用户
+            stringRedisTemplate.opsForSet().remove(orderKey, userId.toString());
+            markSoldOut(voucherId);
+            return Result.fail("秒杀券库存不足");
+        }
+        long orderId = redisIdWorker.nextId("order");
+        Map<String, String> fields = new HashMap<>();
+        fields.put("ts", String.valueOf(orderId >>> 32));
+        fields.put("seq", String.valueOf(orderId & 0xFFFFFFFFL));
+        fields.put("userId", userId.toString());
+        fields.put("voucherId", voucherId.toString());
+        try {
+            stringRedisTemplate.opsForStream().add(StreamRecords.string(fields).withStreamKey(RedisConstants.SECKILL_ORDER_STREAM));
+        } catch (RuntimeException e) {
+            //订单没有写入，归还库存和用户
+            stringRedisTemplate.opsForValue().increment(SeckillShards.stockKey(voucherId, taken));
+            stringRedisTemplate.opsForSet().remove(orderKey, userId.toString());
+            throw e;
+        }
+        return Result.ok(orderId);
+    }
+
+    /**
+     * 秒杀券的开始和结束时间（毫秒），还没有预加载时返回null
+     */
+    private long[] getTimeWindow(Long voucherId) {
+        long[] window = timeWindows.get(voucherId);
+        if (window == null) {
+            List<Object> values = stringRedisTemplate.opsForHash().multiGet(RedisConstants.SECKILL_VOUCHER_KEY + voucherId,
+                    Arrays.asList("begin", "end"));
+            if (values.get(0) == null || values.get(1) == null) {
+                return null;
+            }
+            window = new long[]{Long.parseLong(values.get(0).toString()), Long.parseLong(values.get(1).toString())};
+            timeWindows.put(voucherId, window);
+        }
+        return window;
+    }
+
+    /**
+     * 秒杀券的库存分片数量
+     */
+    private int getStockShards(Long voucherId) {
+        Integer shards = stockShards.get(voucherId);
+        if (shards == null) {
+            String value = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SHARDS_KEY + voucherId);
+            shards = value == null ? 1 : Integer.parseInt(value);
+            stockShards.put(voucherId, shards);
+        }
+        return shards;
+    }
+
+    /**
+     * 其它节点发现秒杀券已经卖完
+     * @param voucherId 秒杀券id
+     */
+    @Override
+    public void onRemoteSoldOut(String voucherId) {
+        soldOut.put(Long.valueOf(voucherId), System.currentTimeMillis() + soldOutTtlMillis);
+    }
+
+    /**
+     * 清除售罄标记和热点秒杀券的本地库存副本，秒杀券补货后调用
+     * @param voucherId 秒杀券id
+     * @param broadcast 是否通知其它节点一起清除
+     */
+    @Override
+    public void resetSoldOut(Long voucherId, boolean broadcast) {
+        soldOut.remove(voucherId);
+        //副本中还是补货前的库存0，不清除的话热点秒杀券会一直被判断为卖完
+        hotKeyDetector.evict(RedisConstants.SECKILL_VOUCHER_KEY + voucherId);
+        if (broadcast) {
+            stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_REPLENISH_CHANNEL, voucherId.toString());
+        }
+    }
+
+    private boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            soldOut.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记秒杀券已经卖完，本节点第一次发现时通知其它节点
+     */
+    private void markSoldOut(Long voucherId) {
+        if (soldOut.put(voucherId, System.currentTimeMillis() + soldOutTtlMillis) == null) {
+            try {
+                stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+            } catch (RuntimeException e) {
+                log.warn("售罄广播失败：{}", voucherId);
+            }
+        }
     }
 
     /*@Override
@@ -106,12 +375,23 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     }*/
 
+    /**
+     * 订单写入数据库，由SeckillOrderConsumer在消费stream时调用
+     * 同一个订单可能被投递多次，订单id已经存在时直接返回
+     * @param voucherOrder 订单
+     * @return 新写入时返回订单id，重复投递时返回空数据，库存不足或者重复下单时返回失败
+     */
+    @Override
     @Transactional
-    public Result createVoucherOrder(Long voucherId) {
+    public Result createVoucherOrder(VoucherOrder voucherOrder) {
+        if (getById(voucherOrder.getId()) != null) {
+            return Result.ok();
+        }
         //一人一单
-        Long userId = UserHolder.getUser().getId();
-        //统计库中对应id的用户和秒杀券，保证库中一个用户只会有一条记录
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
+        Long userId = voucherOrder.getUserId();
+        Long voucherId = voucherOrder.getVoucherId();
+        //统计库中对应id的用户和秒杀券，保证库中一个用户只会有一条有效记录，已取消（4）的订单不算，取消后可以重新抢购
+        int count = query().eq("user_id", userId).eq("voucher_id", voucherId).ne("status", 4).count();
         if (count > 0) {
             return Result.fail("一个用户只能购买一张");
         }
@@ -123,16 +403,179 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         if (!success) {
             return Result.fail("秒杀券库存不足");
         }
-        //创建订单
-        VoucherOrder order = new VoucherOrder();
-        //订单id
-        order.setId(redisIdWorker.nextId("order"));
-        //用户id
-        order.setUserId(userId);
-        //代金券id
-        order.setVoucherId(voucherId);
         //写入数据库
-        save(order);
-        return Result.ok(order.getId());
+        save(voucherOrder);
+        return Result.ok(voucherOrder.getId());
+    }
+
+    /**
+     * 批量写入订单，由SeckillOrderConsumer在消费stream时调用
+     * 一次查询已经存在的订单和已经下过单的用户，每个秒杀券一条 stock = stock - k，所有订单一条多行INSERT；
+     * 出现异常时整个事务回滚，调用方再逐条调用createVoucherOrder，避免一个订单影响整批
+     * @param orders 订单
+     * @return 每个订单的结果，和orders一一对应，含义和createVoucherOrder相同
+     */
+    @Override
+    @Transactional
+    public List<Result> createVoucherOrders(List<VoucherOrder> orders) {
+        Result[] results = new Result[orders.size()];
+        //重复投递的订单
+        Set<Long> existIds = listByIds(orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        //库中已经下过单的用户，key为 用户id:秒杀券id，已取消的订单不算
+        Set<String> bought = query().select("user_id", "voucher_id")
+                .in("voucher_id", orders.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet()))
+                .in("user_id", orders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet()))
+                .ne("status", 4)
+                .list().stream().map(o -> o.getUserId() + ":" + o.getVoucherId())
+                .collect(Collectors.toCollection(HashSet::new));
+        //按秒杀券分组，记录订单的下标
+        Map<Long, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < orders.size(); i++) {
+            VoucherOrder order = orders.get(i);
+            if (existIds.contains(order.getId())) {
+                results[i] = Result.ok();
+            } else if (!bought.add(order.getUserId() + ":" + order.getVoucherId())) {
+                results[i] = Result.fail("一个用户只能购买一张");
+            } else {
+                groups.computeIfAbsent(order.getVoucherId(), id -> new ArrayList<>()).add(i);
+            }
+        }
+        List<VoucherOrder> accepted = new ArrayList<>();
+        for (Map.Entry<Long, List<Integer>> group : groups.entrySet()) {
+            List<Integer> indexes = group.getValue();
+            int count = decreaseStock(group.getKey(), indexes.size());
+            for (int j = 0; j < indexes.size(); j++) {
+                int i = indexes.get(j);
+                if (j < count) {
+                    accepted.add(orders.get(i));
+                    results[i] = Result.ok(orders.get(i).getId());
+                } else {
+                    results[i] = Result.fail("秒杀券库存不足");
+                }
+            }
+        }
+        if (!accepted.isEmpty()) {
+            baseMapper.insertBatch(accepted);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 批量取消超时未支付的订单，由OrderTimeoutQueue调用
+     * 锁住仍然是未支付状态的订单（已经支付或取消的跳过），改为已取消，每个秒杀券一条 stock = stock + k；
+     * 事务提交后把库存还给redis并移除已下单用户，用户可以重新抢购
+     * @param orderIds 超时的订单id
+     * @return 实际取消的订单
+     */
+    @Override
+    @Transactional
+    public List<VoucherOrder> cancelTimeoutOrders(List<Long> orderIds) {
+        //加行锁，避免和支付同时修改订单状态
+        List<VoucherOrder> orders = query().in("id", orderIds).eq("status", 1).last("FOR UPDATE").list();
+        if (orders.isEmpty()) {
+            return Collections.emptyList();
+        }
+        update().set("status", 4).set("update_time", LocalDateTime.now())
+                .in("id", orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                .eq("status", 1)
+                .update();
+        Map<Long, List<VoucherOrder>> groups = orders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        groups.forEach((voucherId, group) -> seckillVoucherMapper.increaseStock(voucherId, group.size()));
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                groups.forEach((voucherId, group) -> {
+                    try {
+                        returnRedisStock(voucherId, group, o -> false);
+                    } catch (RuntimeException e) {
+                        //数据库已经归还，redis中少的库存由对账任务发现
+                        log.error("取消订单后归还redis库存失败，voucherId={}", voucherId, e);
+                    }
+                });
+            }
+        });
+        return orders;
+    }
+
+    /**
+     * 归还没有写入数据库的订单在redis中占用的库存，由SeckillOrderConsumer在订单被数据库拒绝或者放弃重试时、确认消息之前调用
+     * 订单其实已经写入时跳过；用户在库中已经有其它有效订单时只归还库存，保留已下单用户
+     * @param orders 订单
+     */
+    @Override
+    public void releaseSeckillOrders(List<VoucherOrder> orders) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        Set<Long> existIds = listByIds(orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        Set<String> bought = query().select("user_id", "voucher_id")
+                .in("voucher_id", orders.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet()))
+                .in("user_id", orders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet()))
+                .ne("status", 4)
+                .list().stream().map(o -> o.getUserId() + ":" + o.getVoucherId())
+                .collect(Collectors.toSet());
+        Map<Long, List<VoucherOrder>> groups = orders.stream()
+                .filter(o -> !existIds.contains(o.getId()))
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        groups.forEach((voucherId, group) ->
+                returnRedisStock(voucherId, group, o -> bought.contains(o.getUserId() + ":" + o.getVoucherId())));
+    }
+
+    /**
+     * 归还redis中的库存并移除已下单用户，然后清除所有节点的售罄标记
+     * 每个订单只归还一次，重复调用不会多加
+     * @param keepBuyer 保留已下单用户、只归还库存的订单
+     */
+    private void returnRedisStock(Long voucherId, List<VoucherOrder> orders, Predicate<VoucherOrder> keepBuyer) {
+        int shards = getStockShards(voucherId);
+        long returned = 0;
+        if (shards > 1) {
+            //分片库存还给用户的主分片，每个主分片的key不在同一个slot，逐个执行
+            for (VoucherOrder order : orders) {
+                int home = SeckillShards.homeShard(order.getUserId(), shards);
+                returned += stringRedisTemplate.execute(SECKILL_SHARD_CANCEL_SCRIPT,
+                        Arrays.asList(SeckillShards.stockKey(voucherId, home), SeckillShards.orderKey(voucherId, home),
+                                SeckillShards.releasedKey(voucherId, home)),
+                        order.getId().toString(), order.getUserId().toString(), keepBuyer.test(order) ? "1" : "0");
+            }
+        } else {
+            List<String> keys = new ArrayList<>(orders.size() + 4);
+            keys.add(RedisConstants.SECKILL_VOUCHER_KEY + voucherId);
+            keys.add(RedisConstants.SECKILL_ORDER_KEY + voucherId);
+            keys.add(BuyerTracking.bitmapKey(voucherId));
+            keys.add(RedisConstants.SECKILL_RELEASED_KEY + voucherId);
+            List<String> args = new ArrayList<>(orders.size() * 4);
+            for (VoucherOrder order : orders) {
+                Long userId = order.getUserId();
+                keys.add(BuyerTracking.chunkKey(voucherId, userId));
+                args.add(order.getId().toString());
+                args.add(userId.toString());
+                args.add(String.valueOf(BuyerTracking.chunkOffset(userId)));
+                args.add(keepBuyer.test(order) ? "1" : "0");
+            }
+            returned = stringRedisTemplate.execute(SECKILL_CANCEL_SCRIPT, keys, args.toArray());
+        }
+        if (returned > 0) {
+            resetSoldOut(voucherId, true);
+        }
+    }
+
+    /**
+     * 扣减库存，先尝试一次扣减全部；库存不足时按当前库存能扣多少扣多少
+     * @return 实际扣减的数量
+     */
+    private int decreaseStock(Long voucherId, int count) {
+        while (count > 0) {
+            if (seckillVoucherMapper.decreaseStock(voucherId, count) > 0) {
+                return count;
+            }
+            SeckillVoucher seckillVoucher = voucherService.getById(voucherId);
+            int stock = seckillVoucher == null ? 0 : seckillVoucher.getStock();
+            count = Math.min(count - 1, stock);
+        }
+        return 0;
     }
 }
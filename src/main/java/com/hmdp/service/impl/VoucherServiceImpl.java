@@ -6,13 +6,24 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.BuyerTracking;
+import com.hmdp.utils.CacheEvictAfterCommit;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheStrategy;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillShards;
+import com.hmdp.utils.TieredCacheable;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -32,16 +43,43 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
+        // 通过代理对象调用，缓存注解才能生效
+        IVoucherService proxy = (IVoucherService) AopContext.currentProxy();
         // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        List<Voucher> vouchers = proxy.listVoucherOfShop(shopId);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    /**
+     * 查询店铺的优惠券列表，列表中的库存来自秒杀表，有效期较短
+     * @param shopId 店铺id
+     * @return 优惠券列表
+     */
+    @Override
+    @TieredCacheable(keyPrefix = RedisConstants.CACHE_VOUCHER_SHOP_KEY, key = "#shopId",
+            strategy = CacheStrategy.PASS_THROUGH, ttl = 2, elementType = Voucher.class)
+    public List<Voucher> listVoucherOfShop(Long shopId) {
+        return getBaseMapper().queryVoucherOfShop(shopId);
+    }
+
+    @Override
+    @CacheEvictAfterCommit(keyPrefix = RedisConstants.CACHE_VOUCHER_SHOP_KEY, key = "#voucher.shopId")
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+    }
+
     @Override
     @Transactional
+    @CacheEvictAfterCommit(keyPrefix = RedisConstants.CACHE_VOUCHER_SHOP_KEY, key = "#voucher.shopId")
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券
         save(voucher);
@@ -52,7 +90,65 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        //新增券时保存秒杀券到redis中
-        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId(),voucher.getStock().toString());
+        Integer shards = voucher.getStockShards();
+        if (shards != null && shards > 1) {
+            //分片保存库存，每个分片的key在集群中落在不同的slot，不能用一条MSET
+            int[] stocks = SeckillShards.split(voucher.getStock(), shards);
+            for (int i = 0; i < shards; i++) {
+                stringRedisTemplate.opsForValue().set(SeckillShards.stockKey(voucher.getId(), i), String.valueOf(stocks[i]));
+            }
+            stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_SHARDS_KEY + voucher.getId(), shards.toString());
+        }
+        //新增券时保存秒杀券到redis中（库存、开始和结束时间），分片的key在这里一起设置过期时间
+        seckillVoucherService.saveToRedis(Collections.singletonList(seckillVoucher));
+        if (voucher.getBuyerTracking() != null) {
+            BuyerTracking tracking = BuyerTracking.valueOf(voucher.getBuyerTracking());
+            stringRedisTemplate.opsForHash().put(RedisConstants.SECKILL_VOUCHER_KEY + voucher.getId(), "buyers", tracking.name());
+        }
+    }
+
+    /**
+     * 秒杀券补货
+     * 数据库事务提交后再增加redis中的库存，然后清除所有节点的售罄标记
+     * @param voucherId 秒杀券id
+     * @param count 增加的库存
+     * @return 成功或失败
+     */
+    @Override
+    @Transactional
+    public Result replenishSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补货数量必须大于0");
+        }
+        Voucher voucher = getById(voucherId);
+        boolean success = voucher != null && seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        cacheInvalidator.invalidateAfterCommit(RedisConstants.CACHE_VOUCHER_SHOP_KEY + voucher.getShopId());
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                //分片库存的券只修改分片的key，hash中没有stock
+                String shards = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SHARDS_KEY + voucherId);
+                if (shards != null) {
+                    int[] stocks = SeckillShards.split(count, Integer.parseInt(shards));
+                    for (int i = 0; i < stocks.length; i++) {
+                        stringRedisTemplate.opsForValue().increment(SeckillShards.stockKey(voucherId, i), stocks[i]);
+                    }
+                } else {
+                    //还没有预加载时不用修改，预加载时会读取数据库中的新库存
+                    String voucherKey = RedisConstants.SECKILL_VOUCHER_KEY + voucherId;
+                    if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(voucherKey))) {
+                        stringRedisTemplate.opsForHash().increment(voucherKey, "stock", count);
+                    }
+                }
+                voucherOrderService.resetSoldOut(voucherId, true);
+            }
+        });
+        return Result.ok();
     }
 }
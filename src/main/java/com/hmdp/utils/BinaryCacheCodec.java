@@ -0,0 +1,395 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制序列化方式
+ * 按类的字段建立schema，只写字段序号不写字段名，数值使用变长编码，空字段不写；
+ * 超过阈值的大对象（例如Shop.images、Blog.content）使用LZ4压缩
+ *
+ * 格式：
+ * [MAGIC][flags][压缩时：原始长度varint][正文]
+ * 正文：逻辑过期数据先写过期时间（和重建耗时），列表先写元素个数，然后是对象：
+ * [是否为空][schema hash][字段序号+1, 字段值]...[0]
+ *
+ * 第一个字节MAGIC不可能是JSON的开头，可以和JSON格式的数据共存，用于灰度切换
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final byte MAGIC = (byte) 0xB1;
+
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int FLAG_LIST = 1 << 1;
+    private static final int FLAG_LOGICAL = 1 << 2;
+    private static final int FLAG_REBUILD_COST = 1 << 3;
+
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+
+    //类 -> schema，每个类只反射一次
+    private static final Map<Class<?>, Schema> SCHEMAS = new ConcurrentHashMap<>();
+
+    //正文超过这个长度才压缩，小于等于0表示不压缩
+    private final int compressThreshold;
+
+    private final LZ4Compressor compressor = LZ4.fastCompressor();
+
+    private final LZ4FastDecompressor decompressor = LZ4.fastDecompressor();
+
+    public BinaryCacheCodec(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Output out = new Output(256);
+        if (value instanceof Collection) {
+            Collection<?> list = (Collection<?>) value;
+            out.writeVarLong(list.size());
+            for (Object element : list) {
+                writeRecord(out, element);
+            }
+            return finish(out, FLAG_LIST);
+        }
+        writeRecord(out, value);
+        return finish(out, 0);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        try {
+            Input in = open(bytes);
+            return readRecord(in, type);
+        } catch (RuntimeException e) {
+            throw corrupted(e);
+        }
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, Class<T> elementType) {
+        try {
+            Input in = open(bytes);
+            int size = (int) in.readVarLong();
+            if (size < 0 || size > in.buf.length) {
+                throw new CacheCodecException("invalid list size " + size);
+            }
+            List<T> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readRecord(in, elementType));
+            }
+            return list;
+        } catch (RuntimeException e) {
+            throw corrupted(e);
+        }
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        Output out = new Output(256);
+        out.writeVarLong(redisData.getExpireTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+        int flags = FLAG_LOGICAL;
+        if (redisData.getRebuildCost() != null) {
+            out.writeVarLong(redisData.getRebuildCost());
+            flags |= FLAG_REBUILD_COST;
+        }
+        writeRecord(out, redisData.getData());
+        return finish(out, flags);
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] bytes, Class<?> type) {
+        try {
+            Input in = open(bytes);
+            RedisData redisData = new RedisData();
+            redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(in.readVarLong()), ZoneOffset.UTC));
+            if ((bytes[1] & FLAG_REBUILD_COST) != 0) {
+                redisData.setRebuildCost(in.readVarLong());
+            }
+            redisData.setData(readRecord(in, type));
+            return redisData;
+        } catch (RuntimeException e) {
+            throw corrupted(e);
+        }
+    }
+
+    /**
+     * 损坏的数据（长度不对、越界、解压失败等）统一转为CacheCodecException，由CacheClient按未命中处理
+     */
+    private static CacheCodecException corrupted(RuntimeException e) {
+        return e instanceof CacheCodecException ? (CacheCodecException) e
+                : new CacheCodecException("corrupted binary cache value: " + e, e);
+    }
+
+    /**
+     * 写入头部，超过阈值并且压缩后更小时使用压缩后的正文
+     */
+    private byte[] finish(Output body, int flags) {
+        int length = body.pos;
+        if (compressThreshold > 0 && length > compressThreshold) {
+            byte[] compressed = compressor.compress(body.buf, 0, length);
+            if (compressed.length < length) {
+                Output out = new Output(compressed.length + 8);
+                out.writeByte(MAGIC);
+                out.writeByte(flags | FLAG_COMPRESSED);
+                out.writeVarLong(length);
+                out.writeBytes(compressed, 0, compressed.length);
+                return out.toByteArray();
+            }
+        }
+        byte[] bytes = new byte[length + 2];
+        bytes[0] = MAGIC;
+        bytes[1] = (byte) flags;
+        System.arraycopy(body.buf, 0, bytes, 2, length);
+        return bytes;
+    }
+
+    /**
+     * 校验头部，压缩过的数据先解压
+     */
+    private Input open(byte[] bytes) {
+        if (bytes.length < 2 || bytes[0] != MAGIC) {
+            throw new CacheCodecException("not a binary cache value");
+        }
+        int flags = bytes[1];
+        if ((flags & FLAG_COMPRESSED) == 0) {
+            return new Input(bytes, 2);
+        }
+        Input header = new Input(bytes, 2);
+        long length = header.readVarLong();
+        //LZ4的压缩比不会超过255倍，超过说明长度已经损坏，避免按损坏的长度分配内存
+        if (length < 0 || length > (long) (bytes.length - header.pos) * 255) {
+            throw new CacheCodecException("invalid uncompressed length " + length);
+        }
+        byte[] body = new byte[(int) length];
+        decompressor.decompress(bytes, header.pos, body, 0, (int) length);
+        return new Input(body, 0);
+    }
+
+    private void writeRecord(Output out, Object value) {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        Schema schema = schemaOf(value.getClass());
+        out.writeVarLong(schema.hash);
+        try {
+            for (int i = 0; i < schema.fields.length; i++) {
+                Object fieldValue = schema.fields[i].get(value);
+                if (fieldValue == null) {
+                    continue;
+                }
+                out.writeVarLong(i + 1);
+                writeValue(out, schema.fields[i].getType(), fieldValue);
+            }
+        } catch (IllegalAccessException e) {
+            throw new CacheCodecException("encode " + value.getClass().getName() + " failed", e);
+        }
+        out.writeVarLong(0);
+    }
+
+    private <T> T readRecord(Input in, Class<T> type) {
+        if (in.readByte() == 0) {
+            return null;
+        }
+        Schema schema = schemaOf(type);
+        //字段发生过变化，旧数据按未命中处理
+        if ((int) in.readVarLong() != schema.hash) {
+            throw new CacheCodecException("schema of " + type.getName() + " changed");
+        }
+        try {
+            T instance = type.getDeclaredConstructor().newInstance();
+            int index;
+            while ((index = (int) in.readVarLong()) != 0) {
+                Field field = schema.fields[index - 1];
+                field.set(instance, readValue(in, field.getType()));
+            }
+            return instance;
+        } catch (ReflectiveOperationException e) {
+            throw new CacheCodecException("decode " + type.getName() + " failed", e);
+        }
+    }
+
+    private static void writeValue(Output out, Class<?> type, Object value) {
+        if (type == String.class) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeVarLong(bytes.length);
+            out.writeBytes(bytes, 0, bytes.length);
+        } else if (type == Long.class || type == long.class) {
+            out.writeVarLong(zigZag((Long) value));
+        } else if (type == Integer.class || type == int.class) {
+            out.writeVarLong(zigZag((Integer) value));
+        } else if (type == Double.class || type == double.class) {
+            out.writeLong(Double.doubleToRawLongBits((Double) value));
+        } else if (type == Boolean.class || type == boolean.class) {
+            out.writeByte((Boolean) value ? 1 : 0);
+        } else if (type == LocalDateTime.class) {
+            LocalDateTime time = (LocalDateTime) value;
+            out.writeVarLong(zigZag(time.toEpochSecond(ZoneOffset.UTC)));
+            out.writeVarLong(time.getNano());
+        } else {
+            //不常用的类型退化为JSON字符串
+            writeValue(out, String.class, JSONUtil.toJsonStr(value));
+        }
+    }
+
+    private static Object readValue(Input in, Class<?> type) {
+        if (type == String.class) {
+            int length = (int) in.readVarLong();
+            String value = new String(in.buf, in.pos, length, StandardCharsets.UTF_8);
+            in.pos += length;
+            return value;
+        } else if (type == Long.class || type == long.class) {
+            return unZigZag(in.readVarLong());
+        } else if (type == Integer.class || type == int.class) {
+            return (int) unZigZag(in.readVarLong());
+        } else if (type == Double.class || type == double.class) {
+            return Double.longBitsToDouble(in.readLong());
+        } else if (type == Boolean.class || type == boolean.class) {
+            return in.readByte() == 1;
+        } else if (type == LocalDateTime.class) {
+            long seconds = unZigZag(in.readVarLong());
+            return LocalDateTime.ofEpochSecond(seconds, (int) in.readVarLong(), ZoneOffset.UTC);
+        } else {
+            return JSONUtil.toBean((String) readValue(in, String.class), type);
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static Schema schemaOf(Class<?> type) {
+        return SCHEMAS.computeIfAbsent(type, Schema::new);
+    }
+
+    /**
+     * 类的字段列表，按字段名排序保证各节点的序号一致
+     * hash由字段名和类型计算，字段增删改后旧数据会被识别出来
+     */
+    private static class Schema {
+        private final Field[] fields;
+        private final int hash;
+
+        private Schema(Class<?> type) {
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    list.add(field);
+                }
+            }
+            list.sort(Comparator.comparing(Field::getName));
+            this.fields = list.toArray(new Field[0]);
+            StringBuilder signature = new StringBuilder();
+            for (Field field : fields) {
+                signature.append(field.getName()).append(':').append(field.getType().getName()).append(';');
+            }
+            this.hash = signature.toString().hashCode();
+        }
+    }
+
+    private static class Output {
+        private byte[] buf;
+        private int pos;
+
+        private Output(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        private void ensure(int size) {
+            if (pos + size > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + size));
+            }
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        private void writeBytes(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buf, pos, length);
+            pos += length;
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            ensure(8);
+            for (int i = 0; i < 8; i++) {
+                buf[pos++] = (byte) (value >>> (56 - i * 8));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static class Input {
+        private final byte[] buf;
+        private int pos;
+
+        private Input(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        private int readByte() {
+            return buf[pos++];
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (buf[pos++] & 0xFF);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+/**
+ * 秒杀券记录已下单用户的方式，创建秒杀券时选择，保存在秒杀券hash的buyers字段中
+ * 一百万个用户：SET约几十MB；BITMAP只和最大的用户id有关，用户id连续时约125KB；
+ * CHUNKED_BITMAP按用户id的高位分成65536位（8KB）一块，只有出现过的块才占内存，适合id稀疏的情况
+ */
+public enum BuyerTracking {
+    /**
+     * redis的SET，保存用户id字符串
+     */
+    SET,
+    /**
+     * 一个redis位图，用户id作为偏移量
+     */
+    BITMAP,
+    /**
+     * 按用户id高位分块的位图（Roaring bitmap的分块方式），另外用一个SET记录出现过的块
+     */
+    CHUNKED_BITMAP;
+
+    //每块的位数
+    public static final int CHUNK_BITS = 16;
+
+    /**
+     * 位图的key，例如 seckill:buyers:10
+     */
+    public static String bitmapKey(Long voucherId) {
+        return RedisConstants.SECKILL_BUYERS_KEY + voucherId;
+    }
+
+    /**
+     * 分块位图中用户所在块的key，例如 seckill:buyers:10:15
+     */
+    public static String chunkKey(Long voucherId, Long userId) {
+        return RedisConstants.SECKILL_BUYERS_KEY + voucherId + ":" + chunk(userId);
+    }
+
+    /**
+     * 记录出现过哪些块的key
+     */
+    public static String chunkIndexKey(Long voucherId) {
+        return RedisConstants.SECKILL_BUYERS_KEY + voucherId + ":chunks";
+    }
+
+    public static long chunk(Long userId) {
+        return userId >>> CHUNK_BITS;
+    }
+
+    public static long chunkOffset(Long userId) {
+        return userId & ((1L << CHUNK_BITS) - 1);
+    }
+}
@@ -1,25 +1,49 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Time;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * redis工具类
  * 封装了redis的保存方法
+ * 对配置了本地缓存的key前缀，会在redis前面再加一层进程内缓存（L1），
+ * 删除缓存时通过redis的发布订阅通知所有节点清除自己的L1
  *
  */
 @Slf4j
@@ -27,11 +51,109 @@ import java.util.function.Function;
 public class CacheClient {
     private final StringRedisTemplate stringRedisTemplate;
 
-    //重建缓存线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    //缓存数据的序列化方式
+    private final CacheCodec cacheCodec;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    //XFetch提前刷新的系数，越大越倾向于提前刷新
+    private final double xFetchBeta;
+
+    //热点key探测，热点key的读请求由本地副本承担
+    private final HotKeyDetector hotKeyDetector;
+
+    //有效期策略，按访问频率调整有效期并加上随机抖动
+    private final TtlPolicy ttlPolicy;
+
+    //重建缓存线程池，队列有界，同一个key只会排队一个任务
+    private final CacheRebuildExecutor rebuildExecutor;
+
+    //本地缓存中表示空值的占位对象，避免不存在的数据反复穿透到redis
+    private static final Object NULL_VALUE = new Object();
+
+    //hash结构中表示空值的字段
+    private static final String HASH_NULL_FIELD = "_null";
+
+    //hash结构中的版本号字段，每次修改字段时递增，回填时用来判断数据库读到的数据是否已经过时
+    private static final String HASH_VERSION_FIELD = "_v";
+
+    //只在hash存在时修改字段的脚本
+    private static final DefaultRedisScript<Long> HASH_UPDATE_SCRIPT;
+    static {
+        HASH_UPDATE_SCRIPT = new DefaultRedisScript<>();
+        HASH_UPDATE_SCRIPT.setLocation(new ClassPathResource("hash_update.lua"));
+        HASH_UPDATE_SCRIPT.setResultType(Long.class);
+    }
+
+    //版本号没有变化时才回填hash的脚本，在管道中执行
+    private static final byte[] HASH_FILL_SCRIPT = loadScript("hash_fill.lua");
+
+    //redis中的数据无法解析（不存在、格式或字段发生变化）时的返回值，和空值区分开
+    private static final Object MISS = new Object();
+
+    //key前缀 -> 本地缓存，只有开启了本地缓存的前缀才会有
+    private final Map<String, LocalCache<String, Object>> localCaches = new ConcurrentHashMap<>();
+
+    //key前缀 -> 布隆过滤器，用于拦截一定不存在的数据
+    private final Map<String, RedisBloomFilter> bloomFilters = new ConcurrentHashMap<>();
+
+    //正在进行的数据库加载，同一个key的并发请求共用一个结果
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
+    //等待其它节点重建缓存的请求，收到重建完成的通知后唤醒
+    private final Map<String, CompletableFuture<Void>> remoteLoads = new ConcurrentHashMap<>();
+
+    //key前缀 -> 命中率统计
+    private final Map<String, CacheStats> stats = new ConcurrentHashMap<>();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       CacheCodec cacheCodec,
+                       HotKeyDetector hotKeyDetector,
+                       CacheRebuildExecutor rebuildExecutor,
+                       TtlPolicy ttlPolicy,
+                       @Value("${hmdp.cache.local.prefixes:}") String[] localPrefixes,
+                       @Value("${hmdp.cache.local.maximum-size:10000}") int localMaximumSize,
+                       @Value("${hmdp.cache.local.ttl-seconds:30}") long localTtlSeconds,
+                       @Value("${hmdp.cache.xfetch.beta:1.0}") double xFetchBeta) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheCodec = cacheCodec;
+        this.hotKeyDetector = hotKeyDetector;
+        this.rebuildExecutor = rebuildExecutor;
+        this.ttlPolicy = ttlPolicy;
+        this.xFetchBeta = xFetchBeta;
+        for (String prefix : localPrefixes) {
+            if (StrUtil.isNotBlank(prefix)) {
+                enableLocalCache(prefix.trim(), localMaximumSize, localTtlSeconds, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * 对某个key前缀开启本地缓存
+     * @param keyPreFix key前缀
+     * @param maximumSize 最多缓存的条数
+     * @param ttl 本地缓存的有效期，应当远小于redis中的有效期，作为广播丢失时的兜底
+     * @param unit 时间单位
+     */
+    public void enableLocalCache(String keyPreFix, int maximumSize, long ttl, TimeUnit unit) {
+        localCaches.put(keyPreFix, new LocalCache<>(maximumSize, ttl, unit));
+        log.info("local cache enabled for prefix {}, maximumSize={}, ttl={} {}", keyPreFix, maximumSize, ttl, unit);
+    }
+
+    /**
+     * 关闭某个key前缀的本地缓存
+     * @param keyPreFix key前缀
+     */
+    public void disableLocalCache(String keyPreFix) {
+        localCaches.remove(keyPreFix);
+    }
+
+    /**
+     * 为某个key前缀注册布隆过滤器
+     * 注册后查询该前缀的数据时，过滤器判断不存在的id直接返回null，不再查询redis和数据库
+     * @param keyPreFix key前缀
+     * @param bloomFilter 已经加载好数据的布隆过滤器
+     */
+    public void registerBloomFilter(String keyPreFix, RedisBloomFilter bloomFilter) {
+        bloomFilters.put(keyPreFix, bloomFilter);
     }
 
     /**
@@ -42,7 +164,7 @@ public class CacheClient {
      * @param unit 时间单位（时，分，秒）
      */
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,unit);
+        setRaw(key, cacheCodec.encode(value), time, unit);
     }
 
     /**
@@ -55,19 +177,73 @@ public class CacheClient {
      */
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
+        setWithLogicalExpire(key, value, time, unit, null);
+    }
+
+    /**
+     * 使用逻辑过期策略保存数据到redis，同时记录本次重建耗时，供提前刷新策略使用
+     * @param rebuildCost 本次查询数据库的耗时，单位毫秒
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, Long rebuildCost){
         //设置逻辑过期时间
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(ttlPolicy.ttlSeconds(key, time, unit, 0)));
+        redisData.setRebuildCost(rebuildCost);
         //写入redis
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(redisData));
+        byte[] bytes = cacheCodec.encodeLogical(redisData);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.set(rawKey(key), bytes));
+    }
+
+    /**
+     * 批量保存数据到redis，使用管道一次发送，用于缓存预热
+     * @param keyPreFix key前缀
+     * @param values id -> 数据
+     * @param time 过期时间
+     * @param unit 时间单位（时，分，秒）
+     * @param logicalExpire 是否按逻辑过期的格式写入（不设置redis的过期时间）
+     * @param rebuildCost 逻辑过期格式下每个key的重建耗时（毫秒），XFetch按它提前刷新，可以为null
+     */
+    public void setBatch(String keyPreFix, Map<?, ?> values, Long time, TimeUnit unit, boolean logicalExpire, Long rebuildCost){
+        if (values.isEmpty()) {
+            return;
+        }
+        //每个key单独计算有效期，一起预热的数据不会在同一时刻过期
+        LocalDateTime now = LocalDateTime.now();
+        Map<byte[], byte[]> raw = new HashMap<>();
+        Map<byte[], Long> ttls = new HashMap<>();
+        values.forEach((id, value) -> {
+            String key = keyPreFix + id;
+            if (logicalExpire) {
+                RedisData redisData = new RedisData();
+                redisData.setData(value);
+                redisData.setExpireTime(now.plusSeconds(ttlPolicy.ttlSeconds(key, time, unit, 0)));
+                redisData.setRebuildCost(rebuildCost);
+                raw.put(rawKey(key), cacheCodec.encodeLogical(redisData));
+            } else {
+                byte[] bytes = cacheCodec.encode(value);
+                raw.put(rawKey(key), bytes);
+                ttls.put(rawKey(key), ttlOf(key, bytes, time, unit));
+            }
+        });
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            raw.forEach((key, value) -> {
+                if (logicalExpire) {
+                    connection.set(key, value);
+                } else {
+                    connection.setEx(key, ttls.get(key), value);
+                }
+            });
+            return null;
+        });
     }
 
     /**
      * 通过redis查询店铺
      * 用户进行查询操作时，先查询缓存，缓存存在直接返回，不存在则查数据库
      * 添加了若查出数据为空时，插入一条空的数据到redis中，避免出现缓存穿透问题
-     * 添加锁之后，如果查询的数据不再缓存中，就获取锁然后查询数据库
+     * 注册了布隆过滤器的前缀会先经过过滤器，空值缓存只用来兜底过滤器的误判
+     * 同一个节点内同时未命中的请求会合并成一次数据库查询
      * @param keyPreFix key前缀
      * @param id 传入的id
      * @param type 数据类型
@@ -77,33 +253,776 @@ public class CacheClient {
      * @return redis查询结果
      */
     public <R,ID> R queryShopPassThrough(String keyPreFix, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFeedBack){
+        return query(keyPreFix, id, type, time, unit, dbFeedBack, false);
+    }
+
+    /**
+     * 使用互斥锁查询，避免缓存击穿
+     * 在queryShopPassThrough的基础上，合并后的那一次查询还要先获取redis的互斥锁，
+     * 保证整个集群同一个key同时只有一个请求查数据库；
+     * 没拿到锁的节点订阅重建完成的通知，收到通知后直接读缓存，不需要休眠重试
+     * @param keyPreFix key前缀
+     * @param id 传入的id
+     * @param type 数据类型
+     * @param dbFeedBack 调用数据库查询的lambda
+     * @param <R> 返回值泛型
+     * @param <ID> id泛型
+     * @return redis查询结果
+     */
+    public <R,ID> R queryWithMutex(String keyPreFix, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFeedBack){
+        return query(keyPreFix, id, type, time, unit, dbFeedBack, true);
+    }
+
+    private <R,ID> R query(String keyPreFix, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFeedBack, boolean mutex){
+        //布隆过滤器判断不存在，直接返回，避免缓存穿透
+        RedisBloomFilter bloomFilter = bloomFilters.get(keyPreFix);
+        if (bloomFilter != null && !bloomFilter.mightContain(id)) {
+            return null;
+        }
         String key = keyPreFix + id;
-        //查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        CacheStats cacheStats = statsOf(keyPreFix);
+        //先查本地缓存
+        LocalCache<String, Object> localCache = localCaches.get(keyPreFix);
+        if (localCache != null) {
+            Object local = localCache.get(key);
+            if (local != null) {
+                cacheStats.recordL1Hit();
+                return local == NULL_VALUE ? null : type.cast(local);
+            }
+            cacheStats.recordL1Miss();
+        }
+        //查询缓存，空字符串表示缓存的空值
+        Object cached = decodeOrMiss(key, getRaw(key), type);
         //判断是否存在
-        if(StrUtil.isNotBlank(json)){
-            return JSONUtil.toBean(json,type);
+        if (cached != MISS) {
+            cacheStats.recordL2Hit();
+            R r = type.cast(cached);
+            putLocal(localCache, key, r);
+            return r;
         }
-        //判断命中是否为空值
-        if (json != null) {
-            //为空值返回错误信息
-            return null;
+        cacheStats.recordL2Miss();
+        //缓存中没有就去数据库查，同一个key同时只有一个线程真正去查
+        R r = singleFlight(key, () -> mutex
+                ? loadWithLock(key, id, type, time, unit, dbFeedBack, cacheStats)
+                : loadAndSet(key, id, time, unit, dbFeedBack, cacheStats));
+        putLocal(localCache, key, r);
+        //返回查讯到的数据
+        return r;
+    }
+
+    /**
+     * 合并同一个key的并发加载
+     * 第一个线程负责执行加载，其余线程等待同一个CompletableFuture的结果
+     * @param key redis的key
+     * @param loader 真正的加载逻辑
+     * @param <R> 返回值泛型
+     * @return 加载结果
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R singleFlight(String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, future);
+        if (inFlight != null) {
+            //已经有线程在加载，等待它的结果
+            try {
+                return (R) inFlight.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
         }
-        //缓存中没有就去数据库查
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+    /**
+     * 获取互斥锁后再查数据库
+     * 获取不到锁说明其它节点正在重建，等待它发出重建完成的通知后读缓存，超时则自己查数据库
+     */
+    private <R,ID> R loadWithLock(String key, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFeedBack, CacheStats cacheStats) {
+        String lockKey = RedisConstants.LOCK_CACHE_KEY + key;
+        if (tryLock(lockKey)) {
+            try {
+                //拿到锁之后再查一次缓存，可能其它节点刚刚重建完成
+                Object cached = decodeOrMiss(key, getRaw(key), type);
+                if (cached != MISS) {
+                    return type.cast(cached);
+                }
+                return loadAndSet(key, id, time, unit, dbFeedBack, cacheStats);
+            } finally {
+                unLock(lockKey);
+                //通知其它节点正在等待的请求
+                stringRedisTemplate.convertAndSend(RedisConstants.CACHE_LOADED_CHANNEL, key);
+            }
+        }
+        CompletableFuture<Void> loaded = remoteLoads.computeIfAbsent(key, k -> new CompletableFuture<>());
+        try {
+            //先注册等待再查一次缓存，避免通知在注册之前就已经发出
+            Object cached = decodeOrMiss(key, getRaw(key), type);
+            if (cached == MISS) {
+                try {
+                    loaded.get(RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | TimeoutException e) {
+                    log.warn("wait for cache rebuild of {} timed out, load from db directly", key);
+                }
+                cached = decodeOrMiss(key, getRaw(key), type);
+            }
+            if (cached != MISS) {
+                return type.cast(cached);
+            }
+            //持锁的节点重建失败或者超时，降级为自己查数据库
+            return loadAndSet(key, id, time, unit, dbFeedBack, cacheStats);
+        } finally {
+            remoteLoads.remove(key, loaded);
+        }
+    }
+
+    /**
+     * 查询数据库并写入缓存
+     * 数据库中没有时写入空值，避免缓存穿透
+     */
+    private <R,ID> R loadAndSet(String key, ID id, Long time, TimeUnit unit, Function<ID,R> dbFeedBack, CacheStats cacheStats) {
         //由于工具类无法查询数据库，这里是使用lambda
         R r = dbFeedBack.apply(id);
+        cacheStats.recordDbLoad();
         //数据库中没有该店铺信息就返回错误提示
         if(r == null){
             //若店铺为空，将空值存入redis中，有效期两分钟
-            this.set(key, null,time,unit);
+            setRaw(key, new byte[0], RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
             return null;
         }
         //数据库中存在就把该店铺信息写入缓存中
         this.set(key,r,time,unit);
-        //返回查讯到的数据
         return r;
     }
 
+    /**
+     * 按hash结构查询数据，每个字段单独保存，可以只修改部分字段
+     * hash中只有HASH_NULL_FIELD字段时表示缓存的空值
+     * @param keyPreFix key前缀
+     * @param id 传入的id
+     * @param type 数据类型
+     * @param time 过期时间
+     * @param unit 时间单位（时，分，秒）
+     * @param dbFeedBack 调用数据库查询的lambda
+     * @param <R> 返回值泛型
+     * @param <ID> id泛型
+     * @return 查询结果
+     */
+    public <R,ID> R queryHash(String keyPreFix, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFeedBack){
+        RedisBloomFilter bloomFilter = bloomFilters.get(keyPreFix);
+        if (bloomFilter != null && !bloomFilter.mightContain(id)) {
+            return null;
+        }
+        String key = keyPreFix + id;
+        CacheStats cacheStats = statsOf(keyPreFix);
+        ttlPolicy.recordRead(key);
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+        Object version = entries.remove(HASH_VERSION_FIELD);
+        if (!entries.isEmpty()) {
+            cacheStats.recordL2Hit();
+            return entries.containsKey(HASH_NULL_FIELD) ? null : BeanUtil.toBean(entries, type);
+        }
+        cacheStats.recordL2Miss();
+        return singleFlight(key, () -> {
+            R r = dbFeedBack.apply(id);
+            cacheStats.recordDbLoad();
+            setHashBatch(keyPreFix, Collections.singletonMap(id, r),
+                    Collections.singletonMap(id, versionOf(version)), time, unit);
+            return r;
+        });
+    }
+
+    /**
+     * 批量查询hash结构数据中的部分字段，用于列表页只取需要展示的字段
+     * 使用管道一次发送所有HMGET，缓存中没有的数据一次交给数据库查询并写回完整的hash
+     * @param keyPreFix key前缀
+     * @param ids id集合
+     * @param type 数据类型
+     * @param fields 需要的字段
+     * @param time 过期时间
+     * @param unit 时间单位（时，分，秒）
+     * @param dbFeedBack 根据id集合批量查询数据库的lambda
+     * @param <R> 返回值泛型
+     * @param <ID> id泛型
+     * @return id -> 数据，只保证fields中的字段有值，顺序和ids一致
+     */
+    public <R,ID> Map<ID,R> queryHashFields(String keyPreFix, Collection<ID> ids, Class<R> type, List<String> fields,
+                                           Long time, TimeUnit unit, Function<Collection<ID>, Map<ID,R>> dbFeedBack){
+        Map<ID, R> result = new LinkedHashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return result;
+        }
+        CacheStats cacheStats = statsOf(keyPreFix);
+        List<ID> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        idList.forEach(id -> ttlPolicy.recordRead(keyPreFix + id));
+        List<Object> hashKeys = new ArrayList<>(fields);
+        hashKeys.add(HASH_NULL_FIELD);
+        hashKeys.add(HASH_VERSION_FIELD);
+        List<Object> rows = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[][] rawFields = hashKeys.stream().map(f -> rawKey((String) f)).toArray(byte[][]::new);
+            for (ID id : idList) {
+                connection.hMGet(rawKey(keyPreFix + id), rawFields);
+            }
+            return null;
+        });
+        Map<ID, R> found = new HashMap<>();
+        List<ID> missIds = new ArrayList<>();
+        Map<ID, Long> versions = new HashMap<>();
+        for (int i = 0; i < idList.size(); i++) {
+            List<?> values = (List<?>) rows.get(i);
+            Map<String, Object> map = new HashMap<>();
+            for (int j = 0; j < fields.size(); j++) {
+                if (values.get(j) != null) {
+                    map.put(fields.get(j), values.get(j));
+                }
+            }
+            if (values.get(fields.size()) != null) {
+                //缓存的空值
+                cacheStats.recordL2Hit();
+            } else if (map.isEmpty()) {
+                cacheStats.recordL2Miss();
+                missIds.add(idList.get(i));
+                versions.put(idList.get(i), versionOf(values.get(fields.size() + 1)));
+            } else {
+                cacheStats.recordL2Hit();
+                found.put(idList.get(i), BeanUtil.toBean(map, type));
+            }
+        }
+        if (!missIds.isEmpty()) {
+            Map<ID, R> loaded = dbFeedBack.apply(missIds);
+            cacheStats.recordDbLoad();
+            Map<ID, R> toCache = new HashMap<>();
+            for (ID id : missIds) {
+                R r = loaded == null ? null : loaded.get(id);
+                toCache.put(id, r);
+                if (r != null) {
+                    found.put(id, r);
+                }
+            }
+            setHashBatch(keyPreFix, toCache, versions, time, unit);
+        }
+        for (ID id : idList) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量按hash结构写入数据，null写入空值标记，使用空值的有效期
+     * @param keyPreFix key前缀
+     * @param values id -> 数据
+     * @param time 过期时间
+     * @param unit 时间单位（时，分，秒）
+     */
+    public void setHashBatch(String keyPreFix, Map<?, ?> values, Long time, TimeUnit unit){
+        setHashBatch(keyPreFix, values, Collections.emptyMap(), time, unit);
+    }
+
+    /**
+     * 批量按hash结构回填数据，只有hash的版本号仍然等于读缓存时的版本号才写入，
+     * 读数据库期间缓存被修改过的数据不回填，由下一次查询重新加载
+     * @param keyPreFix key前缀
+     * @param values id -> 数据
+     * @param versions id -> 读缓存时hash中的版本号，没有的按0处理
+     * @param time 过期时间
+     * @param unit 时间单位（时，分，秒）
+     */
+    private void setHashBatch(String keyPreFix, Map<?, ?> values, Map<?, Long> versions, Long time, TimeUnit unit){
+        if (values.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((id, value) -> {
+                //KEYS[1]=key ARGV[1]=版本号 ARGV[2]=有效期 之后是字段名和值
+                List<byte[]> args = new ArrayList<>();
+                long ttl;
+                if (value == null) {
+                    args.add(rawKey(HASH_NULL_FIELD));
+                    args.add(rawKey("1"));
+                    ttl = ttlPolicy.nullTtlSeconds(RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                } else {
+                    int size = 0;
+                    for (Map.Entry<String, String> entry : toHash(value).entrySet()) {
+                        byte[] field = rawKey(entry.getKey());
+                        byte[] fieldValue = rawKey(entry.getValue());
+                        args.add(field);
+                        args.add(fieldValue);
+                        size += field.length + fieldValue.length;
+                    }
+                    ttl = ttlPolicy.ttlSeconds(keyPreFix + id, time, unit, size);
+                }
+                Long version = versions.get(id);
+                args.add(0, rawKey(keyPreFix + id));
+                args.add(1, rawKey(String.valueOf(version == null ? 0L : version)));
+                args.add(2, rawKey(String.valueOf(ttl)));
+                connection.eval(HASH_FILL_SCRIPT, ReturnType.INTEGER, 1, args.toArray(new byte[0][]));
+            });
+            return null;
+        });
+    }
+
+    private static Long versionOf(Object version) {
+        return version == null ? 0L : Long.valueOf(version.toString());
+    }
+
+    private static byte[] loadScript(String location) {
+        try {
+            return StreamUtils.copyToByteArray(new ClassPathResource(location).getInputStream());
+        } catch (IOException e) {
+            throw new IllegalStateException("无法读取脚本：" + location, e);
+        }
+    }
+
+    /**
+     * 原子地修改hash中的计数字段，同时递增版本号，缓存不存在时只留下版本号
+     * @param key redis的key
+     * @param field 字段名
+     * @param delta 增量
+     * @return 修改后的值，缓存不存在时返回null
+     */
+    public Long incrementHashField(String key, String field, long delta){
+        ttlPolicy.recordWrite(key);
+        return stringRedisTemplate.execute(HASH_UPDATE_SCRIPT, Collections.singletonList(key),
+                "incr", versionTtl(), field, String.valueOf(delta));
+    }
+
+    /**
+     * 只覆盖hash中发生变化的字段，同时递增版本号，缓存不存在时只留下版本号，
+     * 这样正在从数据库回填的旧数据不会覆盖这次修改
+     * @param key redis的key
+     * @param changed 变化的数据，值为null的字段不修改
+     */
+    public void updateHashFields(String key, Object changed){
+        ttlPolicy.recordWrite(key);
+        Map<String, String> fields = toHash(changed);
+        if (fields.isEmpty()) {
+            return;
+        }
+        List<String> args = new ArrayList<>();
+        args.add("set");
+        args.add(versionTtl());
+        fields.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+        stringRedisTemplate.execute(HASH_UPDATE_SCRIPT, Collections.singletonList(key), args.toArray());
+    }
+
+    //只有版本号的hash的有效期，和空值一样短，只需要覆盖一次数据库查询的时间
+    private String versionTtl() {
+        return String.valueOf(ttlPolicy.nullTtlSeconds(RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES));
+    }
+
+    /**
+     * 对象转为hash，跳过值为null的字段，值统一转为字符串
+     */
+    private static Map<String, String> toHash(Object value) {
+        Map<String, Object> map = BeanUtil.beanToMap(value, new HashMap<>(),
+                CopyOptions.create()
+                        .setIgnoreNullValue(true)
+                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue == null ? null : fieldValue.toString()));
+        Map<String, String> hash = new HashMap<>();
+        map.forEach((field, fieldValue) -> {
+            if (fieldValue != null) {
+                hash.put(field, (String) fieldValue);
+            }
+        });
+        return hash;
+    }
+
+    /**
+     * 收到其它节点重建完成的通知，唤醒本节点等待该key的请求
+     * @param key redis的key
+     */
+    public void onRemoteLoaded(String key) {
+        CompletableFuture<Void> loaded = remoteLoads.remove(key);
+        if (loaded != null) {
+            loaded.complete(null);
+        }
+    }
+
+    /**
+     * 解析redis中的数据
+     * @return 空值返回null，key不存在或者数据无法解析时返回MISS
+     */
+    private Object decodeOrMiss(String key, byte[] bytes, Class<?> type) {
+        if (bytes == null) {
+            return MISS;
+        }
+        if (bytes.length == 0) {
+            return null;
+        }
+        try {
+            return cacheCodec.decode(bytes, type);
+        } catch (CacheCodecException e) {
+            log.warn("decode cache {} failed, treat as miss: {}", key, e.getMessage());
+            return MISS;
+        }
+    }
+
+    /**
+     * 解析redis中逻辑过期格式的数据
+     * @return 空值返回null，key不存在、无法解析或者已经逻辑过期时返回MISS
+     */
+    private Object decodeLogicalOrMiss(String key, byte[] bytes, Class<?> type) {
+        if (bytes == null) {
+            return MISS;
+        }
+        if (bytes.length == 0) {
+            return null;
+        }
+        try {
+            RedisData redisData = cacheCodec.decodeLogical(bytes, type);
+            if (redisData.getExpireTime() == null || !redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+                return MISS;
+            }
+            return redisData.getData();
+        } catch (CacheCodecException e) {
+            log.warn("decode cache {} failed, treat as miss: {}", key, e.getMessage());
+            return MISS;
+        }
+    }
+
+    /**
+     * 读取redis中的原始字节，热点key优先读本地副本
+     */
+    private byte[] getRaw(String key) {
+        ttlPolicy.recordRead(key);
+        boolean hot = hotKeyDetector.record(key);
+        if (hot) {
+            byte[] replica = hotKeyDetector.getReplica(key);
+            if (replica != null) {
+                return replica;
+            }
+        }
+        byte[] raw = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey(key)));
+        if (hot) {
+            hotKeyDetector.putReplica(key, raw);
+        }
+        return raw;
+    }
+
+    /**
+     * 写入redis，有效期由TtlPolicy按访问频率调整并加上抖动
+     */
+    private void setRaw(String key, byte[] value, long time, TimeUnit unit) {
+        long seconds = ttlOf(key, value, time, unit);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.set(rawKey(key), value, Expiration.seconds(seconds), RedisStringCommands.SetOption.upsert()));
+    }
+
+    /**
+     * 空值只加抖动，有数据的key按访问频率调整
+     */
+    private long ttlOf(String key, byte[] value, long time, TimeUnit unit) {
+        return value.length == 0
+                ? ttlPolicy.nullTtlSeconds(time, unit)
+                : ttlPolicy.ttlSeconds(key, time, unit, value.length);
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 查询一个列表类型的缓存，例如店铺类型列表
+     * 和queryShopPassThrough一样先查本地缓存再查redis，都没有再查数据库
+     * @param key redis的key，同时也作为本地缓存的前缀
+     * @param type 列表元素类型
+     * @param dbFeedBack 调用数据库查询的lambda
+     * @param <R> 列表元素泛型
+     * @return 查询结果，数据库也没有时返回空列表
+     */
+    public <R> List<R> queryListPassThrough(String key, Class<R> type, Long time, TimeUnit unit, Supplier<List<R>> dbFeedBack){
+        return queryList(key, key, type, time, unit, dbFeedBack);
+    }
+
+    /**
+     * 查询按id区分的列表缓存，例如某个店铺的优惠券列表
+     * @param keyPreFix key前缀，本地缓存和命中率统计按前缀区分
+     * @param id 传入的id
+     * @param type 列表元素类型
+     * @param dbFeedBack 调用数据库查询的lambda
+     * @param <R> 列表元素泛型
+     * @param <ID> id泛型
+     * @return 查询结果，数据库也没有时返回空列表
+     */
+    public <R,ID> List<R> queryListPassThrough(String keyPreFix, ID id, Class<R> type, Long time, TimeUnit unit, Supplier<List<R>> dbFeedBack){
+        return queryList(keyPreFix, keyPreFix + id, type, time, unit, dbFeedBack);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> List<R> queryList(String keyPreFix, String key, Class<R> type, Long time, TimeUnit unit, Supplier<List<R>> dbFeedBack){
+        CacheStats cacheStats = statsOf(keyPreFix);
+        LocalCache<String, Object> localCache = localCaches.get(keyPreFix);
+        if (localCache != null) {
+            Object local = localCache.get(key);
+            if (local != null) {
+                cacheStats.recordL1Hit();
+                return (List<R>) local;
+            }
+            cacheStats.recordL1Miss();
+        }
+        byte[] bytes = getRaw(key);
+        if (bytes != null && bytes.length == 0) {
+            //缓存的空列表
+            cacheStats.recordL2Hit();
+            return Collections.emptyList();
+        }
+        if (bytes != null) {
+            try {
+                List<R> list = Collections.unmodifiableList(cacheCodec.decodeList(bytes, type));
+                cacheStats.recordL2Hit();
+                putLocal(localCache, key, list);
+                return list;
+            } catch (CacheCodecException e) {
+                log.warn("decode cache {} failed, treat as miss: {}", key, e.getMessage());
+            }
+        }
+        cacheStats.recordL2Miss();
+        List<R> list = dbFeedBack.get();
+        cacheStats.recordDbLoad();
+        if (list == null || list.isEmpty()) {
+            //空列表按空值缓存，避免缓存穿透
+            setRaw(key, new byte[0], RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return Collections.emptyList();
+        }
+        list = Collections.unmodifiableList(list);
+        this.set(key, list, time, unit);
+        putLocal(localCache, key, list);
+        return list;
+    }
+
+    /**
+     * 批量查询
+     * 先查本地缓存，剩下的key用一次MGET查询redis，redis也没有的id交给dbFeedBack一次性查询数据库（IN查询），
+     * 查出来的数据再用管道一次写回redis，数据库中不存在的id写入空值
+     * 一页10条数据只需要2~3次网络往返，而不是逐条查询时的10~20次
+     * @param keyPreFix key前缀
+     * @param ids 需要查询的id
+     * @param type 数据类型
+     * @param dbFeedBack 根据一批id查询数据库的lambda，返回id -> 数据，不存在的id不放入map
+     * @param <R> 返回值泛型
+     * @param <ID> id泛型
+     * @return id -> 数据，顺序和传入的id一致，不存在的id不会出现在结果中
+     */
+    public <R,ID> Map<ID,R> queryBatch(String keyPreFix, Collection<ID> ids, Class<R> type, Long time, TimeUnit unit,
+                                       Function<Collection<ID>, Map<ID,R>> dbFeedBack){
+        return queryBatch(keyPreFix, ids, type, time, unit, dbFeedBack, false);
+    }
+
+    /**
+     * 批量查询，key和queryWithLogicalExpire、queryWithXFetch共用时logicalExpire传true：
+     * 按逻辑过期的格式（RedisData）读取和写回，已经逻辑过期的数据当作未命中，和其它数据一起从数据库加载
+     * @param logicalExpire redis中的数据是否是逻辑过期的格式
+     */
+    public <R,ID> Map<ID,R> queryBatch(String keyPreFix, Collection<ID> ids, Class<R> type, Long time, TimeUnit unit,
+                                       Function<Collection<ID>, Map<ID,R>> dbFeedBack, boolean logicalExpire){
+        Map<ID, R> result = new LinkedHashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return result;
+        }
+        CacheStats cacheStats = statsOf(keyPreFix);
+        RedisBloomFilter bloomFilter = bloomFilters.get(keyPreFix);
+        LocalCache<String, Object> localCache = localCaches.get(keyPreFix);
+        Map<ID, R> found = new HashMap<>();
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (bloomFilter != null && !bloomFilter.mightContain(id)) {
+                continue;
+            }
+            if (localCache != null) {
+                Object local = localCache.get(keyPreFix + id);
+                if (local != null) {
+                    cacheStats.recordL1Hit();
+                    if (local != NULL_VALUE) {
+                        found.put(id, type.cast(local));
+                    }
+                    continue;
+                }
+                cacheStats.recordL1Miss();
+            }
+            remoteIds.add(id);
+        }
+        //一次MGET查询redis
+        List<ID> missIds = new ArrayList<>();
+        if (!remoteIds.isEmpty()) {
+            //热点key先读本地副本，剩下的才发给redis
+            byte[][] raws = new byte[remoteIds.size()][];
+            boolean[] hot = new boolean[remoteIds.size()];
+            List<Integer> fetchIndexes = new ArrayList<>();
+            for (int i = 0; i < remoteIds.size(); i++) {
+                String key = keyPreFix + remoteIds.get(i);
+                ttlPolicy.recordRead(key);
+                hot[i] = hotKeyDetector.record(key);
+                raws[i] = hot[i] ? hotKeyDetector.getReplica(key) : null;
+                if (raws[i] == null) {
+                    fetchIndexes.add(i);
+                }
+            }
+            if (!fetchIndexes.isEmpty()) {
+                byte[][] keys = fetchIndexes.stream().map(i -> rawKey(keyPreFix + remoteIds.get(i))).toArray(byte[][]::new);
+                List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(keys));
+                for (int j = 0; j < fetchIndexes.size(); j++) {
+                    int i = fetchIndexes.get(j);
+                    raws[i] = values == null ? null : values.get(j);
+                    if (hot[i]) {
+                        hotKeyDetector.putReplica(keyPreFix + remoteIds.get(i), raws[i]);
+                    }
+                }
+            }
+            for (int i = 0; i < remoteIds.size(); i++) {
+                ID id = remoteIds.get(i);
+                Object cached = logicalExpire
+                        ? decodeLogicalOrMiss(keyPreFix + id, raws[i], type)
+                        : decodeOrMiss(keyPreFix + id, raws[i], type);
+                if (cached == MISS) {
+                    cacheStats.recordL2Miss();
+                    missIds.add(id);
+                    continue;
+                }
+                cacheStats.recordL2Hit();
+                R r = type.cast(cached);
+                putLocal(localCache, keyPreFix + id, r);
+                if (r != null) {
+                    found.put(id, r);
+                }
+            }
+        }
+        //一次IN查询数据库，再用管道一次写回redis
+        if (!missIds.isEmpty()) {
+            long begin = System.currentTimeMillis();
+            Map<ID, R> loaded = dbFeedBack.apply(missIds);
+            cacheStats.recordDbLoad();
+            //逻辑过期的数据记录平均每条的重建耗时，供XFetch使用
+            long rebuildCost = (System.currentTimeMillis() - begin) / missIds.size();
+            LocalDateTime now = LocalDateTime.now();
+            Map<byte[], byte[]> values = new HashMap<>();
+            for (ID id : missIds) {
+                R r = loaded == null ? null : loaded.get(id);
+                putLocal(localCache, keyPreFix + id, r);
+                if (r != null) {
+                    found.put(id, r);
+                }
+                String key = keyPreFix + id;
+                if (r == null) {
+                    values.put(rawKey(key), new byte[0]);
+                } else if (logicalExpire) {
+                    RedisData redisData = new RedisData();
+                    redisData.setData(r);
+                    redisData.setExpireTime(now.plusSeconds(ttlPolicy.ttlSeconds(key, time, unit, 0)));
+                    redisData.setRebuildCost(rebuildCost);
+                    values.put(rawKey(key), cacheCodec.encodeLogical(redisData));
+                } else {
+                    values.put(rawKey(key), cacheCodec.encode(r));
+                }
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                values.forEach((key, value) -> {
+                    if (value.length == 0) {
+                        connection.setEx(key, ttlPolicy.nullTtlSeconds(RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES), value);
+                    } else if (logicalExpire) {
+                        //逻辑过期的数据不设置redis的过期时间
+                        connection.set(key, value);
+                    } else {
+                        connection.setEx(key, ttlPolicy.ttlSeconds(new String(key, StandardCharsets.UTF_8), time, unit, value.length), value);
+                    }
+                });
+                return null;
+            });
+        }
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 删除缓存
+     * 删除redis中的数据后，广播给所有节点（包括自己）清除本地缓存
+     * @param key redis的key
+     */
+    public void delete(String key) {
+        deleteBatch(Collections.singletonList(key));
+    }
+
+    /**
+     * 批量删除缓存，一次DEL删除所有key，只发送一条失效广播
+     * @param keys redis的key
+     */
+    public void deleteBatch(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.delete(keys);
+        keys.forEach(ttlPolicy::recordWrite);
+        String joined = String.join(",", keys);
+        evictLocal(joined);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, joined);
+    }
+
+    /**
+     * 清除本地缓存，收到失效广播时调用
+     * @param keys 需要清除的key，多个key以','隔开
+     */
+    public void evictLocal(String keys) {
+        for (String key : StrUtil.split(keys, ',')) {
+            hotKeyDetector.evict(key);
+            //key可能同时属于多个前缀（例如cache:shop:list也以cache:shop:开头），所有本地缓存都清一遍
+            for (LocalCache<String, Object> localCache : localCaches.values()) {
+                localCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 获取各个key前缀的命中率统计
+     * @return key前缀 -> 统计数据
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        stats.forEach((prefix, cacheStats) -> {
+            Map<String, Object> map = cacheStats.toMap();
+            LocalCache<String, Object> localCache = localCaches.get(prefix);
+            map.put("localCacheEnabled", localCache != null);
+            if (localCache != null) {
+                map.put("localCacheSize", localCache.size());
+            }
+            RedisBloomFilter bloomFilter = bloomFilters.get(prefix);
+            if (bloomFilter != null) {
+                map.put("bloomFilter", bloomFilter.getMetrics());
+            }
+            result.put(prefix, map);
+        });
+        return result;
+    }
+
+    private CacheStats statsOf(String keyPreFix) {
+        return stats.computeIfAbsent(keyPreFix, k -> new CacheStats());
+    }
+
+    private void putLocal(LocalCache<String, Object> localCache, String key, Object value) {
+        if (localCache != null) {
+            localCache.put(key, value == null ? NULL_VALUE : value);
+        }
+    }
+
 
     /**
      * 使用逻辑过期方法保存店铺信息到redis中
@@ -112,6 +1031,7 @@ public class CacheClient {
      * 2、命中后判断缓存是否过期
      * 3、缓存为过期返回店铺信息，过期则尝试获取锁
      * 4、获取到锁后开启新线程查询数据库，然后更新缓存和过期时间；获取不到就返回过期的信息
+     * 没有预热或者修改后被删除的key由当前线程加锁查询数据库并写入
      * @param keyPreFix key前缀
      * @param id 传入的id
      * @param type 数据类型
@@ -121,44 +1041,123 @@ public class CacheClient {
      * @return redis查询结果
      */
     public <R,ID> R queryWithLogicalExpire(String keyPreFix, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFeedBack){
+        return queryLogical(keyPreFix, id, type, time, unit, dbFeedBack, false);
+    }
+
+    /**
+     * 使用逻辑过期 + 概率提前刷新（XFetch）查询
+     * 每次读取时以一定概率在过期之前就触发重建，越接近过期时间、上次重建越慢，概率越大：
+     * now - rebuildCost * beta * ln(random) >= expireTime 时重建
+     * 同一批预热的key不会在同一时刻集中重建，热点key也基本不会读到过期数据
+     * @param keyPreFix key前缀
+     * @param id 传入的id
+     * @param type 数据类型
+     * @param dbFeedBack 调用数据库查询的lambda
+     * @param <R> 返回值泛型
+     * @param <ID> id泛型
+     * @return redis查询结果
+     */
+    public <R,ID> R queryWithXFetch(String keyPreFix, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFeedBack){
+        return queryLogical(keyPreFix, id, type, time, unit, dbFeedBack, true);
+    }
+
+    private <R,ID> R queryLogical(String keyPreFix, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFeedBack, boolean earlyRefresh){
         String key = keyPreFix + id;
         //查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //判断是否存在
-        if(StrUtil.isBlank(json)){
+        byte[] bytes = getRaw(key);
+        //判断是否存在，不存在（没有预热过或者修改后被删除）时由当前线程加载
+        if(bytes == null){
+            return singleFlight(key, () -> loadLogical(key, id, type, time, unit, dbFeedBack));
+        }
+        //缓存的空值
+        if(bytes.length == 0){
             return null;
         }
-        //查询缓存命中,json转为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(),type);
+        //查询缓存命中,只解析一次就得到过期时间和对象
+        RedisData redisData;
+        try {
+            redisData = cacheCodec.decodeLogical(bytes, type);
+        } catch (CacheCodecException e) {
+            log.warn("decode cache {} failed, treat as miss: {}", key, e.getMessage());
+            return singleFlight(key, () -> loadLogical(key, id, type, time, unit, dbFeedBack));
+        }
+        if (redisData.getExpireTime() == null) {
+            //不是逻辑过期的格式（例如切换策略前写入的数据），当作未命中
+            log.warn("cache {} has no logical expire time, treat as miss", key);
+            return singleFlight(key, () -> loadLogical(key, id, type, time, unit, dbFeedBack));
+        }
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
-        //判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())){
+        //判断是否过期，开启提前刷新时按重建耗时把当前时间往后推一个随机量
+        LocalDateTime now = LocalDateTime.now();
+        if (earlyRefresh && redisData.getRebuildCost() != null) {
+            double gap = -redisData.getRebuildCost() * xFetchBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+            now = now.plusNanos((long) (gap * 1_000_000));
+        }
+        if(expireTime.isAfter(now)){
             //没有过期，直接返回数据
             return r;
         }
         //过期需要重建缓存
         //先获取互斥锁
-        boolean isLock = tryLock(RedisConstants.LOCK_SHOP_KEY + id);
+        //本节点已经在重建这个key时不用再抢锁，锁按完整的key区分，不同前缀的相同id互不影响
+        String lockKey = RedisConstants.LOCK_CACHE_KEY + key;
+        boolean isLock = !rebuildExecutor.isPending(key) && tryLock(lockKey);
         if(isLock){
-            //获取到锁,开启独立线程重建缓存
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+            //获取到锁,交给重建线程池重建缓存，异常由线程池记录
+            boolean accepted = rebuildExecutor.submit(key, () -> {
                 try {
-                    //查询数据库
+                    //查询数据库，记录耗时
+                    long begin = System.currentTimeMillis();
                     R res = dbFeedBack.apply(id);
-                    //写入redis
-                    this.setWithLogicalExpire(key,res,time,unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
+                    //写入redis，数据已经被删除时写入空值
+                    if (res == null) {
+                        setRaw(key, new byte[0], RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                    } else {
+                        this.setWithLogicalExpire(key,res,time,unit,System.currentTimeMillis() - begin);
+                    }
                 } finally {
-                    unLock(RedisConstants.LOCK_SHOP_KEY + id);
+                    unLock(lockKey);
                 }
             });
+            //队列已满或者已经在重建，释放锁，直接返回旧数据
+            if (!accepted) {
+                unLock(lockKey);
+            }
         }
         //返回查讯到的数据
         return r;
     }
 
+    /**
+     * 逻辑过期的缓存未命中时同步加载
+     * 拿到锁的请求查数据库后写入逻辑过期数据（数据库中没有时写入空值）；
+     * 没拿到锁说明其它节点正在写入，直接查数据库返回，不写缓存
+     */
+    private <R,ID> R loadLogical(String key, ID id, Class<R> type, Long time, TimeUnit unit, Function<ID,R> dbFeedBack) {
+        String lockKey = RedisConstants.LOCK_CACHE_KEY + key;
+        if (!tryLock(lockKey)) {
+            return dbFeedBack.apply(id);
+        }
+        try {
+            //拿到锁之后再查一次缓存，可能其它节点刚刚写入
+            Object cached = decodeLogicalOrMiss(key, getRaw(key), type);
+            if (cached != MISS) {
+                return type.cast(cached);
+            }
+            long begin = System.currentTimeMillis();
+            R r = dbFeedBack.apply(id);
+            if (r == null) {
+                setRaw(key, new byte[0], RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                return null;
+            }
+            this.setWithLogicalExpire(key, r, time, unit, System.currentTimeMillis() - begin);
+            return r;
+        } finally {
+            unLock(lockKey);
+        }
+    }
+
     /**
      * redis互斥锁
      * 获取锁
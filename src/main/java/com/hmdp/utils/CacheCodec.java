@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+/**
+ * 缓存数据的序列化方式
+ * CacheClient写入redis和从redis读取时都通过它完成对象和字节之间的转换
+ */
+public interface CacheCodec {
+
+    /**
+     * 对象转为字节
+     * @param value 需要缓存的对象，可以是单个对象或者List
+     * @return 序列化后的字节
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 字节转为对象
+     * @param bytes redis中读到的字节
+     * @param type 数据类型
+     * @param <T> 数据类型泛型
+     * @return 反序列化后的对象
+     * @throws CacheCodecException 数据无法解析
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 字节转为列表
+     * @param bytes redis中读到的字节
+     * @param elementType 列表元素类型
+     * @param <T> 列表元素泛型
+     * @return 反序列化后的列表
+     * @throws CacheCodecException 数据无法解析
+     */
+    <T> List<T> decodeList(byte[] bytes, Class<T> elementType);
+
+    /**
+     * 逻辑过期数据转为字节
+     * @param redisData 带逻辑过期时间的数据
+     * @return 序列化后的字节
+     */
+    byte[] encodeLogical(RedisData redisData);
+
+    /**
+     * 字节转为逻辑过期数据，只解析一次，data直接转为目标类型
+     * @param bytes redis中读到的字节
+     * @param type data的数据类型
+     * @return 逻辑过期数据，data已经是type类型
+     * @throws CacheCodecException 数据无法解析
+     */
+    RedisData decodeLogical(byte[] bytes, Class<?> type);
+}
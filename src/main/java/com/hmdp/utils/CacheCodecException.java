@@ -0,0 +1,16 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存数据无法反序列化，例如类的字段发生了变化
+ * CacheClient遇到该异常时按缓存未命中处理
+ */
+public class CacheCodecException extends RuntimeException {
+
+    public CacheCodecException(String message) {
+        super(message);
+    }
+
+    public CacheCodecException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法正常返回后删除缓存，在事务中时等事务提交后再删除（延迟双删，失败重试），见CacheInvalidator
+ * 例：@CacheEvictAfterCommit(keyPrefix = RedisConstants.CACHE_BLOG_KEY, key = "#id")
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Repeatable(CacheEvictAfterCommit.List.class)
+public @interface CacheEvictAfterCommit {
+
+    /**
+     * key前缀
+     */
+    String keyPrefix();
+
+    /**
+     * key中id部分的SpEL表达式，可以使用参数名、参数位置和#result（方法返回值）
+     */
+    String key();
+
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    @Documented
+    @interface List {
+        CacheEvictAfterCommit[] value();
+    }
+}
@@ -0,0 +1,299 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 可靠的异步缓存失效
+ * 1. 在事务中调用时，等事务提交后才删除缓存，回滚则不删除；
+ * 2. 待删除的key先进入队列，由后台线程定时合并去重，每批只需一次DEL和一次广播；
+ * 3. 删除成功后延迟再删一次（延迟双删），清掉提交前后被读请求回填的旧值；
+ * 4. 删除失败的key写入redis stream，由重试线程按指数退避重试，进程重启也不会丢失；
+ *    redis本身不可用、写stream也失败时，退化为本地重试
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    private static final String FIELD_KEYS = "keys";
+    private static final String FIELD_ATTEMPT = "attempt";
+    private static final String FIELD_RETRY_AT = "retryAt";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final CacheClient cacheClient;
+
+    //每批最多删除的key数量
+    private final int batchSize;
+
+    //第二次删除的延迟
+    private final long doubleDeleteDelayMillis;
+
+    //重试的初始间隔和最大间隔
+    private final long retryBaseMillis;
+    private final long retryMaxMillis;
+
+    //超过该次数后放弃重试，只记录日志
+    private final int maxAttempts;
+
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
+    public CacheInvalidator(StringRedisTemplate stringRedisTemplate, CacheClient cacheClient,
+                            @Value("${hmdp.cache.invalidation.flush-interval-ms:20}") long flushIntervalMillis,
+                            @Value("${hmdp.cache.invalidation.batch-size:200}") int batchSize,
+                            @Value("${hmdp.cache.invalidation.double-delete-delay-ms:500}") long doubleDeleteDelayMillis,
+                            @Value("${hmdp.cache.invalidation.retry.base-ms:1000}") long retryBaseMillis,
+                            @Value("${hmdp.cache.invalidation.retry.max-ms:60000}") long retryMaxMillis,
+                            @Value("${hmdp.cache.invalidation.retry.max-attempts:10}") int maxAttempts) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheClient = cacheClient;
+        this.batchSize = batchSize;
+        this.doubleDeleteDelayMillis = doubleDeleteDelayMillis;
+        this.retryBaseMillis = retryBaseMillis;
+        this.retryMaxMillis = retryMaxMillis;
+        this.maxAttempts = maxAttempts;
+        scheduler.scheduleWithFixedDelay(this::flushSafely, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::retrySafely, retryBaseMillis, retryBaseMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 事务提交后删除缓存
+     * 同一个事务内多次调用只注册一次回调，key在提交时一起入队；没有事务时直接入队
+     * @param keys redis的key
+     */
+    public void invalidateAfterCommit(String... keys) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            enqueue(keys);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Set<String> keysOfTx = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (keysOfTx == null) {
+            Set<String> newKeys = new LinkedHashSet<>();
+            TransactionSynchronizationManager.bindResource(this, newKeys);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(newKeys.toArray(new String[0]));
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CacheInvalidator.this);
+                }
+            });
+            keysOfTx = newKeys;
+        }
+        for (String key : keys) {
+            keysOfTx.add(key);
+        }
+    }
+
+    /**
+     * 立即把key放入失效队列，用于已经在事务之外（例如afterCommit回调中）的调用
+     * @param keys redis的key
+     */
+    public void invalidate(String... keys) {
+        enqueue(keys);
+    }
+
+    /**
+     * 失效统计
+     * @return 删除数量、批次、失败、重试、放弃的次数，以及当前排队的key数量
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("deleted", deleted.sum());
+        metrics.put("batches", batches.sum());
+        metrics.put("failures", failures.sum());
+        metrics.put("retried", retried.sum());
+        metrics.put("abandoned", abandoned.sum());
+        metrics.put("pending", pending.size());
+        return metrics;
+    }
+
+    private void enqueue(String... keys) {
+        for (String key : keys) {
+            pending.offer(key);
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("缓存失效批处理异常", e);
+        }
+    }
+
+    /**
+     * 取出队列中的key，去重后按批删除
+     */
+    private void flush() {
+        Set<String> batch = new LinkedHashSet<>();
+        String key;
+        while ((key = pending.poll()) != null) {
+            batch.add(key);
+            if (batch.size() >= batchSize) {
+                deleteNow(new ArrayList<>(batch), true);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            deleteNow(new ArrayList<>(batch), true);
+        }
+    }
+
+    /**
+     * 删除一批key
+     * @param keys redis的key
+     * @param first 是否是第一次删除，第一次删除成功后安排延迟双删
+     */
+    private void deleteNow(List<String> keys, boolean first) {
+        try {
+            cacheClient.deleteBatch(keys);
+            deleted.add(keys.size());
+            batches.increment();
+        } catch (RuntimeException e) {
+            log.warn("删除缓存失败，加入重试队列，keys={}", keys, e);
+            failures.increment();
+            scheduleRetry(keys, 1);
+            return;
+        }
+        if (first && doubleDeleteDelayMillis > 0 && !scheduler.isShutdown()) {
+            scheduler.schedule(() -> deleteNow(keys, false), doubleDeleteDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 把删除失败的key写入stream，记录第几次重试和下次重试的时间
+     */
+    private void scheduleRetry(List<String> keys, int attempt) {
+        if (attempt > maxAttempts) {
+            abandoned.add(keys.size());
+            log.error("删除缓存重试{}次仍然失败，放弃，keys={}", maxAttempts, keys);
+            return;
+        }
+        long backoff = Math.min(retryMaxMillis, retryBaseMillis << Math.min(attempt - 1, 20));
+        Map<String, String> fields = new HashMap<>();
+        fields.put(FIELD_KEYS, String.join(",", keys));
+        fields.put(FIELD_ATTEMPT, String.valueOf(attempt));
+        fields.put(FIELD_RETRY_AT, String.valueOf(System.currentTimeMillis() + backoff));
+        try {
+            stringRedisTemplate.opsForStream().add(
+                    StreamRecords.string(fields).withStreamKey(RedisConstants.CACHE_INVALIDATE_STREAM));
+        } catch (RuntimeException e) {
+            //redis不可用，只能先在本地重试
+            log.warn("写入缓存失效重试队列失败，改为本地重试，keys={}", keys);
+            if (scheduler.isShutdown()) {
+                return;
+            }
+            scheduler.schedule(() -> retry(keys, attempt), backoff, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void retrySafely() {
+        try {
+            retryFromStream();
+        } catch (RuntimeException e) {
+            log.debug("读取缓存失效重试队列失败", e);
+        }
+    }
+
+    /**
+     * 扫描stream中到期的记录并重试
+     * 记录按写入顺序排列，但退避时间不同，到期的记录可能排在还没到期的后面，所以按页扫描整个stream，
+     * 每轮最多重试batchSize条，其余的下一轮再处理
+     * 多个节点同时扫描时，XDEL返回1的节点才处理该记录，避免重复重试
+     */
+    private void retryFromStream() {
+        long now = System.currentTimeMillis();
+        int handled = 0;
+        String from = null;
+        while (handled < batchSize) {
+            //从上一页最后一条开始（包含），跳过重复的那一条
+            Range<String> range = from == null ? Range.unbounded() : Range.rightUnbounded(Range.Bound.inclusive(from));
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(
+                    RedisConstants.CACHE_INVALIDATE_STREAM, range, RedisZSetCommands.Limit.limit().count(batchSize + 1));
+            if (records == null || records.isEmpty()) {
+                return;
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                if (record.getId().getValue().equals(from)) {
+                    continue;
+                }
+                Map<Object, Object> fields = record.getValue();
+                if (Long.parseLong((String) fields.get(FIELD_RETRY_AT)) > now) {
+                    continue;
+                }
+                Long removed = stringRedisTemplate.opsForStream().delete(RedisConstants.CACHE_INVALIDATE_STREAM, record.getId());
+                if (removed == null || removed == 0) {
+                    continue;
+                }
+                List<String> keys = new ArrayList<>();
+                for (String key : ((String) fields.get(FIELD_KEYS)).split(",")) {
+                    keys.add(key);
+                }
+                retry(keys, Integer.parseInt((String) fields.get(FIELD_ATTEMPT)));
+                handled++;
+            }
+            if (records.size() <= batchSize) {
+                //已经扫描到stream末尾
+                return;
+            }
+            from = records.get(records.size() - 1).getId().getValue();
+        }
+    }
+
+    private void retry(Collection<String> keys, int attempt) {
+        retried.increment();
+        List<String> keyList = new ArrayList<>(keys);
+        try {
+            cacheClient.deleteBatch(keyList);
+            deleted.add(keyList.size());
+            batches.increment();
+        } catch (RuntimeException e) {
+            failures.increment();
+            scheduleRetry(keyList, attempt + 1);
+        }
+    }
+
+    /**
+     * 停止前把队列中剩余的key删掉
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flushSafely();
+    }
+}
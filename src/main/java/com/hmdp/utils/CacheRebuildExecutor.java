@@ -0,0 +1,161 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建线程池
+ * 队列有界，同一个key同时只会有一个重建任务在排队或执行；
+ * 队列满时按配置的策略处理（返回旧数据或由调用线程重建）；
+ * 任务中的异常会被记录，不会被线程池吞掉；应用关闭时等待已提交的任务执行完
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    private final RebuildRejectPolicy rejectPolicy;
+
+    private final long shutdownTimeoutSeconds;
+
+    //排队中或执行中的key
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalWaitMillis = new LongAdder();
+    private final LongAdder totalRunMillis = new LongAdder();
+    private final LongAccumulator maxRunMillis = new LongAccumulator(Math::max, 0);
+
+    public CacheRebuildExecutor(@Value("${hmdp.cache.rebuild.threads:10}") int threads,
+                                @Value("${hmdp.cache.rebuild.queue-capacity:1000}") int queueCapacity,
+                                @Value("${hmdp.cache.rebuild.reject-policy:SERVE_STALE}") RebuildRejectPolicy rejectPolicy,
+                                @Value("${hmdp.cache.rebuild.shutdown-timeout-seconds:10}") long shutdownTimeoutSeconds) {
+        AtomicInteger index = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "cache-rebuild-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.rejectPolicy = rejectPolicy;
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 重建的缓存key，用于去重
+     * @param task 重建逻辑
+     * @return 任务是否已经被接收（排队或由调用线程执行完），false表示调用方需要自己释放占用的资源（例如锁）
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!pendingKeys.add(key)) {
+            //同一个key已经在重建，直接返回旧数据
+            deduplicated.increment();
+            return false;
+        }
+        long submitAt = System.currentTimeMillis();
+        Runnable wrapped = () -> run(key, task, submitAt);
+        try {
+            executor.execute(wrapped);
+            submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            if (rejectPolicy == RebuildRejectPolicy.CALLER_RUNS && !executor.isShutdown()) {
+                submitted.increment();
+                wrapped.run();
+                return true;
+            }
+            pendingKeys.remove(key);
+            log.warn("cache rebuild queue full, serve stale data for {}", key);
+            return false;
+        }
+    }
+
+    /**
+     * key是否正在排队或重建
+     * @param key 缓存key
+     * @return 是否正在重建
+     */
+    public boolean isPending(String key) {
+        return pendingKeys.contains(key);
+    }
+
+    private void run(String key, Runnable task, long submitAt) {
+        long begin = System.currentTimeMillis();
+        totalWaitMillis.add(begin - submitAt);
+        try {
+            task.run();
+            completed.increment();
+        } catch (RuntimeException e) {
+            failed.increment();
+            log.error("cache rebuild failed for {}", key, e);
+        } finally {
+            long cost = System.currentTimeMillis() - begin;
+            totalRunMillis.add(cost);
+            maxRunMillis.accumulate(cost);
+            pendingKeys.remove(key);
+        }
+    }
+
+    /**
+     * 重建线程池的运行指标
+     * @return 队列深度、任务数量、失败数、耗时等
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long finished = completed.sum() + failed.sum();
+        metrics.put("queueDepth", executor.getQueue().size());
+        metrics.put("queueRemainingCapacity", executor.getQueue().remainingCapacity());
+        metrics.put("activeThreads", executor.getActiveCount());
+        metrics.put("pendingKeys", pendingKeys.size());
+        metrics.put("submitted", submitted.sum());
+        metrics.put("completed", completed.sum());
+        metrics.put("failed", failed.sum());
+        metrics.put("deduplicated", deduplicated.sum());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("rejectPolicy", rejectPolicy);
+        metrics.put("avgWaitMillis", finished == 0 ? 0 : totalWaitMillis.sum() / finished);
+        metrics.put("avgRunMillis", finished == 0 ? 0 : totalRunMillis.sum() / finished);
+        metrics.put("maxRunMillis", maxRunMillis.get());
+        return metrics;
+    }
+
+    /**
+     * 不再接收新任务，等待已提交的任务执行完，超时后中断
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+                log.warn("cache rebuild tasks not finished in {}s, {} dropped", shutdownTimeoutSeconds,
+                        executor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存命中率统计
+ * 分别统计本地缓存（L1）和redis（L2）的命中与未命中次数
+ */
+public class CacheStats {
+
+    private final LongAdder l1Hits = new LongAdder();
+    private final LongAdder l1Misses = new LongAdder();
+    private final LongAdder l2Hits = new LongAdder();
+    private final LongAdder l2Misses = new LongAdder();
+    private final LongAdder dbLoads = new LongAdder();
+
+    public void recordL1Hit() {
+        l1Hits.increment();
+    }
+
+    public void recordL1Miss() {
+        l1Misses.increment();
+    }
+
+    public void recordL2Hit() {
+        l2Hits.increment();
+    }
+
+    public void recordL2Miss() {
+        l2Misses.increment();
+    }
+
+    public void recordDbLoad() {
+        dbLoads.increment();
+    }
+
+    /**
+     * 转为map，方便接口直接返回
+     * @return 各级缓存的命中次数和命中率
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        long l1Hit = l1Hits.sum();
+        long l1Miss = l1Misses.sum();
+        long l2Hit = l2Hits.sum();
+        long l2Miss = l2Misses.sum();
+        map.put("l1Hits", l1Hit);
+        map.put("l1Misses", l1Miss);
+        map.put("l1HitRatio", ratio(l1Hit, l1Miss));
+        map.put("l2Hits", l2Hit);
+        map.put("l2Misses", l2Miss);
+        map.put("l2HitRatio", ratio(l2Hit, l2Miss));
+        //未命中次数远大于查库次数，说明并发的未命中被合并了
+        map.put("dbLoads", dbLoads.sum());
+        return map;
+    }
+
+    private static double ratio(long hit, long miss) {
+        long total = hit + miss;
+        return total == 0 ? 0D : (double) hit / total;
+    }
+}
@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+/**
+ * CacheClient提供的缓存查询策略
+ */
+public enum CacheStrategy {
+    /**
+     * 缓存空值解决缓存穿透
+     */
+    PASS_THROUGH,
+    /**
+     * 在PASS_THROUGH的基础上加互斥锁，解决缓存击穿
+     */
+    MUTEX,
+    /**
+     * 逻辑过期，过期后由独立线程重建，重建期间返回旧数据
+     */
+    LOGICAL_EXPIRE,
+    /**
+     * 逻辑过期 + 概率提前刷新（XFetch），在过期之前分散地重建
+     */
+    XFETCH,
+    /**
+     * 按字段保存为redis的hash，列表页只读需要的字段，计数字段原子自增
+     */
+    HASH
+}
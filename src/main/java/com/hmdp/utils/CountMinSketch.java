@@ -0,0 +1,87 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min Sketch，用固定大小的计数数组估算每个key出现的次数
+ * 估算值只会偏大不会偏小，误差和宽度成反比，和key的数量无关
+ * 计数使用AtomicLongArray，可以被多个线程同时累加
+ */
+public class CountMinSketch {
+
+    private final int depth;
+
+    private final int mask;
+
+    private final AtomicLongArray counters;
+
+    /**
+     * @param depth 哈希函数个数（行数）
+     * @param width 每行的计数器个数，会向上取整为2的幂
+     */
+    public CountMinSketch(int depth, int width) {
+        this.depth = depth;
+        int size = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        this.mask = size - 1;
+        this.counters = new AtomicLongArray(depth * size);
+    }
+
+    /**
+     * 累加key的计数
+     * @param key 计数的key
+     * @param count 增加的次数
+     */
+    public void add(String key, long count) {
+        int h1 = fmix(key.hashCode());
+        int h2 = fmix(h1) | 1;
+        for (int i = 0; i < depth; i++) {
+            counters.addAndGet(index(i, h1, h2), count);
+        }
+    }
+
+    /**
+     * 估算key的计数，取各行中最小的计数器
+     * @param key 计数的key
+     * @return 估算的次数
+     */
+    public long estimate(String key) {
+        int h1 = fmix(key.hashCode());
+        int h2 = fmix(h1) | 1;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.get(index(i, h1, h2)));
+        }
+        return min;
+    }
+
+    /**
+     * 所有计数减半，用于让旧的访问逐渐衰减
+     */
+    public void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            long value = counters.get(i);
+            if (value != 0) {
+                counters.set(i, value >> 1);
+            }
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    private int index(int row, int h1, int h2) {
+        return row * (mask + 1) + ((h1 + row * h2) & mask);
+    }
+
+    private static int fmix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
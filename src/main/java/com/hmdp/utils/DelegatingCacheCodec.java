@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+/**
+ * 同时支持JSON和二进制格式的序列化方式，用于格式迁移
+ * 写入时使用配置的格式，读取时根据第一个字节自动识别格式，
+ * 所以切换格式后redis中已有的旧格式数据仍然可以正常读取，直到过期后被新格式替换
+ */
+public class DelegatingCacheCodec implements CacheCodec {
+
+    private final CacheCodec writer;
+
+    private final JsonCacheCodec json;
+
+    private final BinaryCacheCodec binary;
+
+    public DelegatingCacheCodec(boolean writeBinary, JsonCacheCodec json, BinaryCacheCodec binary) {
+        this.writer = writeBinary ? binary : json;
+        this.json = json;
+        this.binary = binary;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return writer.encode(value);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return readerOf(bytes).decode(bytes, type);
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, Class<T> elementType) {
+        return readerOf(bytes).decodeList(bytes, elementType);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        return writer.encodeLogical(redisData);
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] bytes, Class<?> type) {
+        return readerOf(bytes).decodeLogical(bytes, type);
+    }
+
+    private CacheCodec readerOf(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == BinaryCacheCodec.MAGIC ? binary : json;
+    }
+}
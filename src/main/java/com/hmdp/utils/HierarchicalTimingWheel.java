@@ -0,0 +1,226 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 分层时间轮
+ * 最底层每格tickMs毫秒、共wheelSize格，超出范围的任务放到上一层（每格是下一层一圈的时间），上一层按需创建；
+ * 只有放了任务的格子进入DelayQueue，工作线程按格子的到期时间推进时钟，上层格子到期时把任务降到下层，
+ * 最底层格子到期时把任务交给处理函数。添加和到期都是O(1)，不会像定时扫描那样空转
+ *
+ * @param <T> 任务
+ */
+@Slf4j
+public class HierarchicalTimingWheel<T> {
+
+    private final DelayQueue<Bucket<T>> queue = new DelayQueue<>();
+
+    private final Level<T> root;
+
+    private final Consumer<List<T>> handler;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final Thread worker;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param name 工作线程的名称
+     * @param tickMs 最底层每格的毫秒数
+     * @param wheelSize 每层的格数
+     * @param handler 到期任务的处理函数，在工作线程中执行，应该尽快返回
+     */
+    public HierarchicalTimingWheel(String name, long tickMs, int wheelSize, Consumer<List<T>> handler) {
+        this.root = new Level<>(tickMs, wheelSize, System.currentTimeMillis(), queue);
+        this.handler = handler;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * 启动工作线程，调用之前添加的任务不会到期
+     */
+    public void start() {
+        worker.start();
+    }
+
+    /**
+     * 添加任务，已经到期的任务立即交给处理函数
+     * @param task 任务
+     * @param deadline 到期时间，毫秒
+     */
+    public void add(T task, long deadline) {
+        boolean added;
+        synchronized (this) {
+            added = root.add(new Entry<>(task, deadline));
+        }
+        if (added) {
+            size.incrementAndGet();
+        } else {
+            fire(Collections.singletonList(task));
+        }
+    }
+
+    /**
+     * 时间轮中还没有到期的任务数
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Bucket<T> bucket = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (bucket == null) {
+                    continue;
+                }
+                List<T> expired = new ArrayList<>();
+                synchronized (this) {
+                    while (bucket != null) {
+                        root.advance(bucket.getExpiration());
+                        //重新添加格子中的任务：最底层的已经到期，上层的降到下一层
+                        for (Entry<T> entry : bucket.flush()) {
+                            if (!root.add(entry)) {
+                                expired.add(entry.task);
+                            }
+                        }
+                        bucket = queue.poll();
+                    }
+                }
+                if (!expired.isEmpty()) {
+                    size.addAndGet(-expired.size());
+                    fire(expired);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void fire(List<T> tasks) {
+        try {
+            handler.accept(tasks);
+        } catch (RuntimeException e) {
+            log.error("时间轮任务处理异常", e);
+        }
+    }
+
+    private static class Entry<T> {
+        private final T task;
+        private final long deadline;
+
+        private Entry(T task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+
+    private static class Level<T> {
+        private final long tickMs;
+        private final int wheelSize;
+        //这一层一圈的毫秒数
+        private final long interval;
+        private final Bucket<T>[] buckets;
+        private final DelayQueue<Bucket<T>> queue;
+        //当前时间，tickMs的整数倍
+        private long currentTime;
+        private Level<T> overflow;
+
+        @SuppressWarnings("unchecked")
+        private Level(long tickMs, int wheelSize, long startMs, DelayQueue<Bucket<T>> queue) {
+            this.tickMs = tickMs;
+            this.wheelSize = wheelSize;
+            this.interval = tickMs * wheelSize;
+            this.buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket<>();
+            }
+            this.queue = queue;
+            this.currentTime = startMs - startMs % tickMs;
+        }
+
+        /**
+         * @return false表示已经到期（不到一格）
+         */
+        private boolean add(Entry<T> entry) {
+            if (entry.deadline < currentTime + tickMs) {
+                return false;
+            }
+            if (entry.deadline < currentTime + interval) {
+                long virtualId = entry.deadline / tickMs;
+                Bucket<T> bucket = buckets[(int) (virtualId % wheelSize)];
+                bucket.add(entry);
+                //格子第一次使用或者上一圈已经用完时，重新设置到期时间并放入DelayQueue
+                if (bucket.setExpiration(virtualId * tickMs)) {
+                    queue.offer(bucket);
+                }
+                return true;
+            }
+            if (overflow == null) {
+                overflow = new Level<>(interval, wheelSize, currentTime, queue);
+            }
+            return overflow.add(entry);
+        }
+
+        private void advance(long timeMs) {
+            if (timeMs >= currentTime + tickMs) {
+                currentTime = timeMs - timeMs % tickMs;
+                if (overflow != null) {
+                    overflow.advance(currentTime);
+                }
+            }
+        }
+    }
+
+    private static class Bucket<T> implements Delayed {
+        private final AtomicLong expiration = new AtomicLong(-1);
+        private List<Entry<T>> entries = new ArrayList<>();
+
+        private synchronized void add(Entry<T> entry) {
+            entries.add(entry);
+        }
+
+        private synchronized List<Entry<T>> flush() {
+            List<Entry<T>> flushed = entries;
+            entries = new ArrayList<>();
+            expiration.set(-1);
+            return flushed;
+        }
+
+        private boolean setExpiration(long expirationMs) {
+            return expiration.getAndSet(expirationMs) != expirationMs;
+        }
+
+        private long getExpiration() {
+            return expiration.get();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(Math.max(0, getExpiration() - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getExpiration(), ((Bucket<?>) other).getExpiration());
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 热点key探测
+ * 对redis的读请求按比例采样，计入按秒滚动的Count-Min Sketch（滑动窗口），
+ * 窗口内估算的QPS超过阈值的key升级为热点key，在本节点用很短TTL的本地副本挡住对redis的读请求；
+ * 升级时通过发布订阅通知其它节点一起升级，流量下降后自动降级
+ *
+ * 本地副本保存的是redis中的原始字节，和缓存的格式、策略无关；
+ * 缓存失效时和L1一起清除，TTL很短，作为广播丢失时的兜底
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //采样比例，0~1
+    private final double sampleRate;
+
+    //升级为热点key的QPS阈值
+    private final long thresholdQps;
+
+    //窗口秒数，每秒一个sketch
+    private final int windowSeconds;
+
+    private final CountMinSketch[] buckets;
+
+    //每个sketch对应的秒，不是当前窗口内的sketch在下次使用前清空
+    private final AtomicLongArray bucketSeconds;
+
+    //key -> 热点信息
+    private final Map<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+
+    //热点key的本地副本
+    private final LocalCache<String, byte[]> replicas;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    public HotKeyDetector(StringRedisTemplate stringRedisTemplate,
+                          @Value("${hmdp.cache.hot-key.sample-rate:0.1}") double sampleRate,
+                          @Value("${hmdp.cache.hot-key.threshold-qps:500}") long thresholdQps,
+                          @Value("${hmdp.cache.hot-key.window-seconds:5}") int windowSeconds,
+                          @Value("${hmdp.cache.hot-key.replica-ttl-ms:1000}") long replicaTtlMillis,
+                          @Value("${hmdp.cache.hot-key.maximum-size:1000}") int maximumSize) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.sampleRate = sampleRate;
+        this.thresholdQps = thresholdQps;
+        this.windowSeconds = windowSeconds;
+        this.buckets = new CountMinSketch[windowSeconds];
+        for (int i = 0; i < windowSeconds; i++) {
+            buckets[i] = new CountMinSketch(4, 4096);
+        }
+        this.bucketSeconds = new AtomicLongArray(windowSeconds);
+        this.replicas = new LocalCache<>(maximumSize, replicaTtlMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::checkSafely, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 记录一次对key的读请求
+     * @param key redis的key
+     * @return key当前是否是热点key
+     */
+    public boolean record(String key) {
+        if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            long second = System.currentTimeMillis() / 1000;
+            currentBucket(second).add(key, 1);
+            if (!hotKeys.containsKey(key) && estimateQps(key, second) >= thresholdQps) {
+                promote(key, true);
+            }
+        }
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 查询热点key的本地副本
+     * @param key redis的key
+     * @return redis中的原始字节，没有副本时返回null
+     */
+    public byte[] getReplica(String key) {
+        return replicas.get(key);
+    }
+
+    /**
+     * 保存热点key的本地副本，非热点key不保存
+     * @param key redis的key
+     * @param value redis中的原始字节
+     */
+    public void putReplica(String key, byte[] value) {
+        if (value != null && hotKeys.containsKey(key)) {
+            replicas.put(key, value);
+        }
+    }
+
+    /**
+     * 清除本地副本，缓存失效时调用
+     * @param key redis的key
+     */
+    public void evict(String key) {
+        replicas.remove(key);
+    }
+
+    /**
+     * 其它节点升级了热点key，本节点一起升级
+     * @param keys 热点key，多个key以','隔开
+     */
+    public void onRemotePromoted(String keys) {
+        for (String key : keys.split(",")) {
+            HotKey hotKey = hotKeys.get(key);
+            if (hotKey == null) {
+                promote(key, false);
+            } else {
+                hotKey.remoteSeenAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * 当前的热点key，按QPS从高到低排列
+     * @return key、本节点估算的QPS、升级时间、是否由本节点探测到
+     */
+    public List<Map<String, Object>> listHotKeys() {
+        long second = System.currentTimeMillis() / 1000;
+        List<Map<String, Object>> list = new ArrayList<>();
+        hotKeys.forEach((key, hotKey) -> {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("key", key);
+            map.put("qps", estimateQps(key, second));
+            map.put("promotedAt", hotKey.promotedAt);
+            map.put("local", hotKey.local);
+            list.add(map);
+        });
+        list.sort(Comparator.comparing((Map<String, Object> map) -> (Long) map.get("qps")).reversed());
+        return list;
+    }
+
+    private void promote(String key, boolean local) {
+        long now = System.currentTimeMillis();
+        if (hotKeys.putIfAbsent(key, new HotKey(now, local)) == null) {
+            log.info("hot key promoted: {}, local={}", key, local);
+            if (local) {
+                publish(key);
+            }
+        }
+    }
+
+    private void checkSafely() {
+        try {
+            check();
+        } catch (RuntimeException e) {
+            log.error("热点key检查异常", e);
+        }
+    }
+
+    /**
+     * 每秒检查一次：QPS降到阈值一半以下、并且其它节点也不再通知的key降级；
+     * 本节点仍然是热点的key再广播一次，让其它节点继续保持
+     */
+    private void check() {
+        long now = System.currentTimeMillis();
+        long second = now / 1000;
+        long holdMillis = TimeUnit.SECONDS.toMillis(windowSeconds);
+        List<String> stillHot = new ArrayList<>();
+        hotKeys.forEach((key, hotKey) -> {
+            long qps = estimateQps(key, second);
+            if (qps >= thresholdQps / 2) {
+                hotKey.local = true;
+                stillHot.add(key);
+                return;
+            }
+            if (now - hotKey.promotedAt < holdMillis || now - hotKey.remoteSeenAt < holdMillis) {
+                return;
+            }
+            hotKeys.remove(key);
+            replicas.remove(key);
+            log.info("hot key demoted: {}", key);
+        });
+        if (!stillHot.isEmpty()) {
+            publish(String.join(",", stillHot));
+        }
+    }
+
+    private void publish(String keys) {
+        try {
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_HOT_KEY_CHANNEL, keys);
+        } catch (RuntimeException e) {
+            log.warn("热点key广播失败：{}", keys);
+        }
+    }
+
+    /**
+     * 当前秒对应的sketch，进入新的一秒时先清空
+     */
+    private CountMinSketch currentBucket(long second) {
+        int index = (int) (second % windowSeconds);
+        long old = bucketSeconds.get(index);
+        if (old != second && bucketSeconds.compareAndSet(index, old, second)) {
+            buckets[index].clear();
+        }
+        return buckets[index];
+    }
+
+    /**
+     * 窗口内的采样次数还原为实际次数，再除以窗口秒数
+     */
+    private long estimateQps(String key, long second) {
+        if (sampleRate <= 0) {
+            return 0;
+        }
+        long sampled = 0;
+        for (int i = 0; i < windowSeconds; i++) {
+            if (second - bucketSeconds.get(i) < windowSeconds) {
+                sampled += buckets[i].estimate(key);
+            }
+        }
+        return (long) (sampled / sampleRate / windowSeconds);
+    }
+
+    private static class HotKey {
+        private final long promotedAt;
+        private volatile boolean local;
+        private volatile long remoteSeenAt;
+
+        private HotKey(long promotedAt, boolean local) {
+            this.promotedAt = promotedAt;
+            this.local = local;
+            this.remoteSeenAt = local ? 0 : promotedAt;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
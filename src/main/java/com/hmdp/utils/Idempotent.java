@@ -0,0 +1,29 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接口幂等，请求头中带有幂等键（默认Idempotency-Key）时生效，没有时正常执行
+ * 同一个用户用同一个幂等键重复请求时直接返回第一次成功的结果，不再执行方法；
+ * 只缓存成功的Result，失败（例如排队中、库存不足）时删除记录，客户端可以用同一个键重试
+ * 例：@Idempotent(ttl = 10, unit = TimeUnit.MINUTES)
+ *
+ * 方法的返回值必须是Result
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Idempotent {
+
+    /**
+     * 成功结果的保存时间，超过后同一个幂等键会重新执行
+     */
+    long ttl() default 10;
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+}
@@ -0,0 +1,117 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Idempotent的切面
+ * 幂等键 = idempotent:用户id:方法:请求头中的键，先查本地LRU（同一个节点上的重试不访问redis），
+ * 再用SETNX占住这个键（值为处理中，短有效期，节点宕机后可以重试），执行成功后把Result覆盖写入并设置有效期；
+ * 占键失败时读取已有的记录：处理中返回失败，已完成直接返回保存的Result
+ */
+@Slf4j
+@Aspect
+@Component
+public class IdempotentAspect {
+
+    private static final String PROCESSING = "PROCESSING";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //幂等键所在的请求头
+    private final String header;
+
+    //处理中记录的有效期，方法执行超过该时间或者节点宕机后同一个键可以重新执行
+    private final long processingTtlSeconds;
+
+    //同一个节点上的重试直接从本地返回
+    private final LocalCache<String, Result> localResults;
+
+    public IdempotentAspect(StringRedisTemplate stringRedisTemplate,
+                            @Value("${hmdp.idempotency.header:Idempotency-Key}") String header,
+                            @Value("${hmdp.idempotency.processing-ttl-seconds:30}") long processingTtlSeconds,
+                            @Value("${hmdp.idempotency.local.maximum-size:10000}") int localMaximumSize,
+                            @Value("${hmdp.idempotency.local.ttl-seconds:60}") long localTtlSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.header = header;
+        this.processingTtlSeconds = processingTtlSeconds;
+        this.localResults = new LocalCache<>(localMaximumSize, localTtlSeconds, TimeUnit.SECONDS);
+    }
+
+    @Around("@annotation(idempotent)")
+    public Object idempotent(ProceedingJoinPoint pjp, Idempotent idempotent) throws Throwable {
+        String requestKey = requestKey();
+        if (StrUtil.isBlank(requestKey)) {
+            return pjp.proceed();
+        }
+        if (requestKey.length() > 64) {
+            return Result.fail("幂等键长度不能超过64");
+        }
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        UserDTO user = UserHolder.getUser();
+        String key = RedisConstants.IDEMPOTENT_KEY + (user == null ? 0 : user.getId()) + ":"
+                + method.getDeclaringClass().getSimpleName() + "." + method.getName() + ":" + requestKey;
+        Result cached = localResults.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        Boolean acquired = stringRedisTemplate.opsForValue().setIfAbsent(key, PROCESSING, processingTtlSeconds, TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(acquired)) {
+            String value = stringRedisTemplate.opsForValue().get(key);
+            //value为null说明刚好过期或者被删除，也按处理中返回，客户端稍后重试
+            if (value == null || PROCESSING.equals(value)) {
+                return Result.fail("请求正在处理中，请勿重复提交");
+            }
+            Result result = JSONUtil.toBean(value, Result.class);
+            localResults.put(key, result);
+            return result;
+        }
+        Object result;
+        try {
+            result = pjp.proceed();
+        } catch (Throwable e) {
+            //异常时删除记录，允许重试
+            delete(key);
+            throw e;
+        }
+        if (result instanceof Result && Boolean.TRUE.equals(((Result) result).getSuccess())) {
+            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(result), idempotent.ttl(), idempotent.unit());
+            localResults.put(key, (Result) result);
+        } else {
+            delete(key);
+        }
+        return result;
+    }
+
+    private String requestKey() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes)) {
+            return null;
+        }
+        return ((ServletRequestAttributes) attributes).getRequest().getHeader(header);
+    }
+
+    private void delete(String key) {
+        try {
+            stringRedisTemplate.delete(key);
+        } catch (RuntimeException e) {
+            log.warn("删除幂等记录失败：{}", key, e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 使用Hutool JSON的序列化方式，和之前直接调用JSONUtil写入的数据格式完全一致
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        try {
+            return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+        } catch (RuntimeException e) {
+            throw invalid(e);
+        }
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, Class<T> elementType) {
+        try {
+            return JSONUtil.toList(new String(bytes, StandardCharsets.UTF_8), elementType);
+        } catch (RuntimeException e) {
+            throw invalid(e);
+        }
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        return encode(redisData);
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] bytes, Class<?> type) {
+        //只解析一次JSON，data字段直接从解析好的JSONObject转为目标类型
+        try {
+            JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+            RedisData redisData = json.toBean(RedisData.class);
+            Object data = redisData.getData();
+            redisData.setData(data instanceof JSONObject ? ((JSONObject) data).toBean(type) : null);
+            return redisData;
+        } catch (RuntimeException e) {
+            throw invalid(e);
+        }
+    }
+
+    /**
+     * Hutool解析和转换时抛出的异常统一转为CacheCodecException，由CacheClient按未命中处理
+     */
+    private static CacheCodecException invalid(RuntimeException e) {
+        return new CacheCodecException("invalid json cache value: " + e.getMessage(), e);
+    }
+}
@@ -0,0 +1,135 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的本地缓存
+ * 按容量（LRU）和过期时间（TTL）两种方式淘汰数据
+ * 作为CacheClient的一级缓存使用，保存的是已经反序列化好的对象，调用方拿到的对象只能读不能改
+ * 按key的hash分成多段，每段单独加锁、单独按LRU淘汰，不同段的读写互不阻塞，
+ * 淘汰顺序是近似的LRU
+ * @param <K> key泛型
+ * @param <V> value泛型
+ */
+public class LocalCache<K, V> {
+
+    //分段数量的上限，2的幂
+    private static final int MAX_SEGMENTS = 16;
+
+    private final int maximumSize;
+
+    private final long ttlMillis;
+
+    private final Segment<K, V>[] segments;
+
+    @SuppressWarnings("unchecked")
+    public LocalCache(int maximumSize, long ttl, TimeUnit unit) {
+        this.maximumSize = maximumSize;
+        this.ttlMillis = unit.toMillis(ttl);
+        //容量太小时少分几段，保证每段至少能放一条数据
+        int count = 1;
+        while (count < MAX_SEGMENTS && count * 2 <= maximumSize) {
+            count *= 2;
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            //总容量平均分到每段，前面的段多分余数
+            segments[i] = new Segment<>(maximumSize / count + (i < maximumSize % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * 查询本地缓存
+     * @param key 缓存的key
+     * @return 缓存的数据，不存在或者已经过期时返回null
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry<V> entry = segment.get(key);
+            if (entry == null) {
+                return null;
+            }
+            //判断是否过期，过期直接删除
+            if (entry.expireAt < System.currentTimeMillis()) {
+                segment.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    public void put(K key, V value) {
+        Entry<V> entry = new Entry<>(value, System.currentTimeMillis() + ttlMillis);
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    public void remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        //高位参与运算，避免hash低位相同的key集中到同一段
+        h ^= h >>> 16;
+        return segments[h & (segments.length - 1)];
+    }
+
+    /**
+     * 一段缓存，accessOrder为true时LinkedHashMap按访问顺序排列，最久没有访问的数据排在最前面
+     */
+    private static class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+        private final int maximumSize;
+
+        private Segment(int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+            //超过容量时淘汰最久没有访问的数据
+            return size() > maximumSize;
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expireAt;
+
+        private Entry(V value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
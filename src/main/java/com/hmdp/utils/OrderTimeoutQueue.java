@@ -0,0 +1,229 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.SeckillResult;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 未支付订单的超时取消
+ * 订单写入数据库后加入redis的超时队列（ZSET，score为超时时间），所有节点共享；
+ * 每个节点定时认领horizon-seconds内就要超时的订单（lua脚本中从队列移到已认领ZSET，不会被两个节点认领），
+ * 放进本地的分层时间轮，到期后攒成一批取消，处理完再从已认领ZSET中删除。
+ * 节点宕机时已认领的订单在租约到期后回到队列，由其它节点处理
+ */
+@Slf4j
+@Component
+public class OrderTimeoutQueue {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final SeckillResultNotifier seckillResultNotifier;
+
+    private final boolean enabled;
+
+    //下单后多久不支付自动取消
+    private final long payTimeoutMillis;
+
+    //认领多久之内超时的订单，更晚的留在redis中
+    private final long horizonMillis;
+
+    private final long pollIntervalMillis;
+
+    private final int batchSize;
+
+    //超时时间之后多久还没有处理完，认为认领的节点已经宕机
+    private final long leaseMillis;
+
+    //到期的订单id，等待取消
+    private final BlockingQueue<Long> expired = new LinkedBlockingQueue<>();
+
+    private final HierarchicalTimingWheel<Long> wheel;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final Thread canceller = new Thread(this::cancelLoop, "order-timeout-cancel");
+
+    private volatile boolean running = true;
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("order_timeout_claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+    }
+
+    public OrderTimeoutQueue(StringRedisTemplate stringRedisTemplate, IVoucherOrderService voucherOrderService,
+                             SeckillResultNotifier seckillResultNotifier,
+                             @Value("${hmdp.seckill.timeout.enabled:true}") boolean enabled,
+                             @Value("${hmdp.seckill.timeout.pay-timeout-seconds:900}") long payTimeoutSeconds,
+                             @Value("${hmdp.seckill.timeout.horizon-seconds:60}") long horizonSeconds,
+                             @Value("${hmdp.seckill.timeout.poll-interval-ms:1000}") long pollIntervalMillis,
+                             @Value("${hmdp.seckill.timeout.batch-size:100}") int batchSize,
+                             @Value("${hmdp.seckill.timeout.lease-seconds:120}") long leaseSeconds,
+                             @Value("${hmdp.seckill.timeout.tick-ms:100}") long tickMillis,
+                             @Value("${hmdp.seckill.timeout.wheel-size:64}") int wheelSize) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.voucherOrderService = voucherOrderService;
+        this.seckillResultNotifier = seckillResultNotifier;
+        this.enabled = enabled;
+        this.payTimeoutMillis = TimeUnit.SECONDS.toMillis(payTimeoutSeconds);
+        this.horizonMillis = TimeUnit.SECONDS.toMillis(horizonSeconds);
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.batchSize = batchSize;
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        this.wheel = new HierarchicalTimingWheel<>("order-timeout-wheel", tickMillis, wheelSize, expired::addAll);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        wheel.start();
+        canceller.setDaemon(true);
+        canceller.start();
+        scheduler.scheduleWithFixedDelay(this::claimSafely, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 订单加入超时队列，超时时间由订单id中的下单时间计算，重复加入时不会变化
+     * 由SeckillOrderConsumer在订单写入数据库之后、确认消息之前调用
+     * @param orders 已经写入数据库的订单
+     */
+    public void schedule(List<VoucherOrder> orders) {
+        if (!enabled || orders.isEmpty()) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(orders.size());
+        for (VoucherOrder order : orders) {
+            long deadline = RedisIdWorker.epochMillis(order.getId()) + payTimeoutMillis;
+            tuples.add(new DefaultTypedTuple<>(order.getId().toString(), (double) deadline));
+        }
+        stringRedisTemplate.opsForZSet().add(RedisConstants.SECKILL_TIMEOUT_KEY, tuples);
+        scheduled.add(orders.size());
+    }
+
+    /**
+     * 统计数据
+     * @return 加入队列、认领、取消、已经支付而跳过、取消异常的订单数量，时间轮和待取消的订单数
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("scheduled", scheduled.sum());
+        metrics.put("claimed", claimed.sum());
+        metrics.put("cancelled", cancelled.sum());
+        metrics.put("skipped", skipped.sum());
+        metrics.put("failed", failed.sum());
+        metrics.put("inWheel", wheel.size());
+        metrics.put("expired", expired.size());
+        return metrics;
+    }
+
+    private void claimSafely() {
+        try {
+            claim();
+        } catch (RuntimeException e) {
+            log.error("认领超时订单异常", e);
+        }
+    }
+
+    /**
+     * 认领即将超时的订单放进时间轮，一次认领满了说明还有，继续认领
+     */
+    private void claim() {
+        List<?> items;
+        do {
+            long now = System.currentTimeMillis();
+            items = stringRedisTemplate.execute(CLAIM_SCRIPT,
+                    Arrays.asList(RedisConstants.SECKILL_TIMEOUT_KEY, RedisConstants.SECKILL_TIMEOUT_CLAIMED_KEY),
+                    String.valueOf(now), String.valueOf(now + horizonMillis), String.valueOf(batchSize),
+                    String.valueOf(leaseMillis));
+            if (items == null) {
+                return;
+            }
+            for (int i = 0; i + 1 < items.size(); i += 2) {
+                long deadline = (long) Double.parseDouble(items.get(i + 1).toString());
+                wheel.add(Long.valueOf(items.get(i).toString()), deadline);
+            }
+            claimed.add(items.size() / 2);
+        } while (running && items.size() / 2 >= batchSize);
+    }
+
+    /**
+     * 取出到期的订单，攒成一批取消；取消异常时留在已认领ZSET中，租约到期后重新处理
+     */
+    private void cancelLoop() {
+        while (running) {
+            List<Long> batch = new ArrayList<>(batchSize);
+            try {
+                Long first = expired.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                expired.drainTo(batch, batchSize - 1);
+                List<VoucherOrder> orders = voucherOrderService.cancelTimeoutOrders(batch);
+                cancelled.add(orders.size());
+                skipped.add(batch.size() - orders.size());
+                stringRedisTemplate.opsForZSet().remove(RedisConstants.SECKILL_TIMEOUT_CLAIMED_KEY,
+                        batch.stream().map(String::valueOf).toArray());
+                if (!orders.isEmpty()) {
+                    //下单结果改为已取消
+                    seckillResultNotifier.publish(orders, orders.stream()
+                            .map(o -> new SeckillResult(SeckillResult.CANCELLED, o.getId(), "超时未支付，订单已取消"))
+                            .collect(Collectors.toList()));
+                    log.debug("取消超时订单{}个：{}", orders.size(),
+                            orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                failed.add(batch.size());
+                log.error("取消超时订单异常，size={}", batch.size(), e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        scheduler.shutdownNow();
+        canceller.interrupt();
+        wheel.shutdown();
+    }
+}
@@ -0,0 +1,15 @@
+package com.hmdp.utils;
+
+/**
+ * 重建队列已满时的处理方式
+ */
+public enum RebuildRejectPolicy {
+    /**
+     * 放弃本次重建，直接返回旧数据，等下一次请求再触发重建
+     */
+    SERVE_STALE,
+    /**
+     * 由发起请求的线程自己重建，请求变慢但数据尽快更新
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,311 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 布隆过滤器
+ * 本地保存一份位数组用于判断，同时在redis中保存一份bitmap，节点重启时直接从redis加载
+ * 新增数据时同时写本地、写redis并广播给其它节点，保证各节点的位数组一致；
+ * 在线重建期间新增的数据同时写入正在构建的位数组，替换redis的bitmap后重新写一次，完成后广播其它节点重新加载
+ * 布隆过滤器判断不存在的数据一定不存在，判断存在的数据有一定误判率
+ */
+@Slf4j
+public class RedisBloomFilter {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //redis中bitmap的key
+    private final String key;
+
+    //新增数据时广播使用的频道
+    private final String channel;
+
+    //重建完成后广播其它节点重新加载的频道
+    private final String reloadChannel;
+
+    //位数组长度
+    private final long numBits;
+
+    //哈希函数个数
+    private final int numHashes;
+
+    //重建时整体替换，读的时候不加锁
+    private volatile AtomicLongArray bits;
+
+    //正在重建的位数组，不在重建时为null
+    private volatile AtomicLongArray rebuilding;
+
+    //重建期间新增的数据，替换redis的bitmap后重新写入
+    private final Set<String> rebuildWrites = ConcurrentHashMap.newKeySet();
+
+    //已经放入的数据个数，用于估算当前误判率
+    private final LongAdder insertions = new LongAdder();
+
+    //被过滤器直接拦截的请求数
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param expectedInsertions 预计放入的数据量
+     * @param fpp 期望的误判率
+     */
+    public RedisBloomFilter(StringRedisTemplate stringRedisTemplate, String key, String channel, String reloadChannel,
+                            long expectedInsertions, double fpp) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = key;
+        this.channel = channel;
+        this.reloadChannel = reloadChannel;
+        //m = -n*ln(p)/(ln2)^2，按8字节对齐
+        long m = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.max(64, (m + 63) / 64 * 64);
+        //k = m/n*ln2
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        this.bits = newBits();
+    }
+
+    /**
+     * 判断数据是否可能存在
+     * @param id 数据id
+     * @return false表示一定不存在
+     */
+    public boolean mightContain(Object id) {
+        AtomicLongArray current = bits;
+        long[] hashes = hash(id);
+        for (int i = 0; i < numHashes; i++) {
+            long index = index(hashes, i);
+            if ((current.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                rejected.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 新增数据
+     * 写本地位数组，用管道写redis的bitmap，并广播给其它节点
+     * @param id 数据id
+     */
+    public void put(Object id) {
+        putLocal(id);
+        setRedisBits(Collections.singletonList(id));
+        stringRedisTemplate.convertAndSend(channel, String.valueOf(id));
+    }
+
+    /**
+     * 只写本地位数组，收到其它节点的广播时调用
+     * @param id 数据id
+     */
+    public void putLocal(Object id) {
+        long[] hashes = hash(id);
+        setBits(bits, hashes);
+        //重建期间同时写入新的位数组，并记录下来，替换redis的bitmap后重新写入
+        AtomicLongArray next = rebuilding;
+        if (next != null) {
+            setBits(next, hashes);
+            rebuildWrites.add(String.valueOf(id));
+        }
+        insertions.increment();
+    }
+
+    /**
+     * 从redis重新加载，收到其它节点重建完成的广播时调用
+     */
+    public void reload() {
+        if (!load()) {
+            log.warn("bloom filter {} not found in redis, keep local bits", key);
+        }
+    }
+
+    /**
+     * 启动时加载
+     * redis中已经有bitmap就直接加载，没有就用数据库的数据重建
+     * @param source 查询全量数据id的lambda，只有需要重建时才会调用
+     */
+    public void loadOrRebuild(Supplier<? extends Iterable<?>> source) {
+        if (!load()) {
+            rebuild(source);
+        }
+    }
+
+    /**
+     * 用redis中的bitmap替换本地位数组
+     * @return redis中没有bitmap时返回false
+     */
+    private boolean load() {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+        if (bytes == null || bytes.length == 0) {
+            return false;
+        }
+        AtomicLongArray loaded = newBits();
+        long count = 0;
+        //redis的bitmap中第0位是第一个字节的最高位
+        for (int i = 0; i < bytes.length && (long) i * 8 < numBits; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b == 0) {
+                continue;
+            }
+            for (int j = 0; j < 8; j++) {
+                if ((b & (0x80 >>> j)) != 0) {
+                    long index = (long) i * 8 + j;
+                    int word = (int) (index >>> 6);
+                    loaded.set(word, loaded.get(word) | (1L << index));
+                    count++;
+                }
+            }
+        }
+        bits = loaded;
+        //从位数组反推已放入的数据量：n = -m/k*ln(1 - x/m)
+        insertions.reset();
+        insertions.add((long) (-(double) numBits / numHashes * Math.log(1 - (double) count / numBits)));
+        log.info("bloom filter {} loaded from redis, bits set={}", key, count);
+        return true;
+    }
+
+    /**
+     * 在线重建
+     * 先在新的位数组和redis的临时key中构建，完成后再整体替换，重建期间判断不受影响；
+     * 先开始记录新增的数据再查询全量数据，查询之后新增的数据不会丢失
+     * @param source 查询全量数据id的lambda
+     */
+    public synchronized void rebuild(Supplier<? extends Iterable<?>> source) {
+        AtomicLongArray rebuilt = newBits();
+        rebuildWrites.clear();
+        rebuilding = rebuilt;
+        try {
+            long count = 0;
+            for (Object id : source.get()) {
+                setBits(rebuilt, hash(id));
+                count++;
+            }
+            //转成redis的bitmap格式，整体写入临时key后rename，避免其它节点读到一半的数据
+            byte[] bytes = new byte[(int) (numBits / 8)];
+            for (long index = 0; index < numBits; index++) {
+                if ((rebuilt.get((int) (index >>> 6)) & (1L << index)) != 0) {
+                    bytes[(int) (index >>> 3)] |= (byte) (0x80 >>> (index & 7));
+                }
+            }
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            byte[] tmpKey = (key + ":rebuild").getBytes(StandardCharsets.UTF_8);
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.set(tmpKey, bytes);
+                connection.rename(tmpKey, rawKey);
+                return null;
+            });
+            bits = rebuilt;
+            //重建期间写到旧bitmap上的数据在rename时被覆盖，重新写入
+            List<String> writes = new ArrayList<>(rebuildWrites);
+            setRedisBits(writes);
+            insertions.reset();
+            insertions.add(count + writes.size());
+            log.info("bloom filter {} rebuilt, insertions={}, written during rebuild={}", key, count, writes.size());
+        } finally {
+            rebuilding = null;
+            rebuildWrites.clear();
+        }
+        //其它节点从redis重新加载，清除已经不存在的id
+        stringRedisTemplate.convertAndSend(reloadChannel, key);
+    }
+
+    /**
+     * 过滤器的运行指标
+     * @return 位数组大小、占用内存、当前估算的误判率等
+     */
+    public Map<String, Object> getMetrics() {
+        long n = insertions.sum();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("key", key);
+        map.put("numBits", numBits);
+        map.put("numHashes", numHashes);
+        map.put("memoryBytes", numBits / 8);
+        map.put("insertions", n);
+        //p = (1 - e^(-kn/m))^k
+        map.put("expectedFpp", Math.pow(1 - Math.exp(-(double) numHashes * n / numBits), numHashes));
+        map.put("rejected", rejected.sum());
+        return map;
+    }
+
+    private void setBits(AtomicLongArray target, long[] hashes) {
+        for (int i = 0; i < numHashes; i++) {
+            long index = index(hashes, i);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            do {
+                old = target.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!target.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    /**
+     * 用管道写redis的bitmap
+     */
+    private void setRedisBits(List<?> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Object id : ids) {
+                long[] hashes = hash(id);
+                for (int i = 0; i < numHashes; i++) {
+                    connection.setBit(rawKey, index(hashes, i), true);
+                }
+            }
+            return null;
+        });
+    }
+
+    private AtomicLongArray newBits() {
+        return new AtomicLongArray((int) (numBits / 64));
+    }
+
+    /**
+     * 双重哈希：第i个哈希值 = h1 + i * h2
+     */
+    private long index(long[] hashes, int i) {
+        long combined = hashes[0] + i * hashes[1];
+        return (combined & Long.MAX_VALUE) % numBits;
+    }
+
+    /**
+     * 对id的字符串形式做64位FNV-1a哈希，再用murmur3的finalizer打散，得到两个独立的哈希值
+     */
+    private static long[] hash(Object id) {
+        byte[] data = String.valueOf(id).getBytes(StandardCharsets.UTF_8);
+        long h = 0xcbf29ce484222325L;
+        for (byte b : data) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        long h1 = fmix(h);
+        long h2 = fmix(h1 ^ 0x9E3779B97F4A7C15L);
+        return new long[]{h1, h2};
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb93fe53b7b3aL;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -11,11 +11,47 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_LIST = "cache:shop:list";
+    public static final String CACHE_SHOP_HASH_KEY = "cache:shop:hash:";
+    public static final String SHOP_TYPE_VERSION_KEY = "shop:type:version";
+    public static final String SHOP_TYPE_VERSION_CHANNEL = "shop:type:version";
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_INFO_KEY = "cache:user:info:";
+    public static final String CACHE_VOUCHER_SHOP_KEY = "cache:voucher:shop:";
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_LOADED_CHANNEL = "cache:loaded";
+    public static final String CACHE_HOT_KEY_CHANNEL = "cache:hotkey";
+    public static final String CACHE_INVALIDATE_STREAM = "stream.cache.invalidate";
+
+    public static final String BLOOM_SHOP_KEY = "bloom:shop";
+    public static final String BLOOM_SHOP_CHANNEL = "bloom:shop:add";
+    public static final String BLOOM_SHOP_RELOAD_CHANNEL = "bloom:shop:reload";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_CACHE_KEY = "lock:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_BUYERS_KEY = "seckill:buyers:";
+    //已经归还过库存的订单id，保证每个订单只归还一次
+    public static final String SECKILL_RELEASED_KEY = "seckill:released:";
+    public static final String SECKILL_TICKET_KEY = "seckill:ticket:";
+    public static final String SECKILL_ROOM_KEY = "seckill:room:";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    //未支付订单的超时队列（ZSET，score为超时时间），和认领后正在处理的订单，两个key在同一个slot
+    public static final String SECKILL_TIMEOUT_KEY = "seckill:{timeout}";
+    public static final String SECKILL_TIMEOUT_CLAIMED_KEY = "seckill:{timeout}:claimed";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_REPLENISH_CHANNEL = "seckill:replenish";
+    public static final String SECKILL_RESULT_KEY = "seckill:result:";
+    public static final String SECKILL_RESULT_CHANNEL = "seckill:result";
+    public static final String IDEMPOTENT_KEY = "idempotent:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -11,4 +11,6 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    //上一次重建缓存（查询数据库）的耗时，单位毫秒
+    private Long rebuildCost;
 }
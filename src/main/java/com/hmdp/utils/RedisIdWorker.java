@@ -24,13 +24,41 @@ public class RedisIdWorker {
 
     public long nextId(String preFix){
         //生成时间戳
-        long now = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
-        long timeStamp = now - BEGIN_TIMESTAMP;
+        long timeStamp = timestamp();
         //生成序列号
-        //获取当前时间，精确到天
-        String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
         //添加自增长key,每天一个新的key
-        long count = stringRedisTemplate.opsForValue().increment("irc" + ":" + preFix + ":" + date);
+        long count = stringRedisTemplate.opsForValue().increment(counterKey(preFix));
+        return compose(timeStamp, count);
+    }
+
+    /**
+     * 当前时间相对开始时间的秒数，作为id的高位
+     */
+    public long timestamp(){
+        return LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+    }
+
+    /**
+     * 序列号的自增key
+     * 获取当前时间，精确到天，每天一个新的key
+     * 在lua脚本中自增序列号时使用，可以和其它操作在一次网络往返中完成
+     */
+    public String counterKey(String preFix){
+        String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        return "irc" + ":" + preFix + ":" + date;
+    }
+
+    /**
+     * 时间戳和序列号拼接成id
+     */
+    public static long compose(long timeStamp, long count){
         return timeStamp << BIT_LONG | count;
     }
+
+    /**
+     * id中的时间戳部分还原成毫秒时间，例如用订单id计算下单时间
+     */
+    public static long epochMillis(long id){
+        return ((id >>> BIT_LONG) + BEGIN_TIMESTAMP) * 1000;
+    }
 }
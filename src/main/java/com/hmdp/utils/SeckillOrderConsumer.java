@@ -0,0 +1,444 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillResult;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀订单消费者
+ * seckill.lua扣减redis库存后把订单写入stream，这里用消费者组批量读取并写入数据库：
+ * 攒够batch-size个订单或者等待超过batch-wait-ms后整批写入（一条多行INSERT，每个秒杀券一条扣减库存的UPDATE），
+ * 成功的订单一次XACK确认；写入时出现异常的订单留在pending-list中，
+ * 由本消费者重新读取，或者在空闲超过claim-idle-ms后被其它消费者认领（处理宕机节点遗留的订单）。
+ * 订单id在lua脚本中生成，重复投递时按id判断已经写入过，保证至少一次且幂等。
+ * 写入成功（包括重复投递）的订单在确认前加入OrderTimeoutQueue，超时不支付自动取消；
+ * 确认前把每个订单的结果写入SeckillResultNotifier，通知等待结果的用户
+ */
+@Slf4j
+@Component
+public class SeckillOrderConsumer {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final OrderTimeoutQueue orderTimeoutQueue;
+
+    private final SeckillResultNotifier seckillResultNotifier;
+
+    private final int workers;
+
+    private final int batchSize;
+
+    private final long blockMillis;
+
+    //读到第一批订单后最多再等待的时间，用来攒够一批
+    private final long batchWaitMillis;
+
+    //pending超过该时间的订单被认为消费者已经宕机，由其它消费者认领
+    private final long claimIdleMillis;
+
+    //投递超过该次数仍然失败的订单不再重试，记录日志、归还redis中的库存后确认
+    private final long maxDeliveries;
+
+    //消费者名称的前缀，每个进程不同
+    private final String consumerPrefix = ManagementFactory.getRuntimeMXBean().getName();
+
+    private final List<Worker> workerList = new ArrayList<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private volatile boolean running = true;
+
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder duplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
+    public SeckillOrderConsumer(StringRedisTemplate stringRedisTemplate, IVoucherOrderService voucherOrderService,
+                                OrderTimeoutQueue orderTimeoutQueue, SeckillResultNotifier seckillResultNotifier,
+                                @Value("${hmdp.seckill.order.workers:2}") int workers,
+                                @Value("${hmdp.seckill.order.batch-size:50}") int batchSize,
+                                @Value("${hmdp.seckill.order.block-ms:2000}") long blockMillis,
+                                @Value("${hmdp.seckill.order.batch-wait-ms:50}") long batchWaitMillis,
+                                @Value("${hmdp.seckill.order.claim-idle-ms:60000}") long claimIdleMillis,
+                                @Value("${hmdp.seckill.order.max-deliveries:10}") long maxDeliveries) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.voucherOrderService = voucherOrderService;
+        this.orderTimeoutQueue = orderTimeoutQueue;
+        this.seckillResultNotifier = seckillResultNotifier;
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.blockMillis = blockMillis;
+        this.batchWaitMillis = batchWaitMillis;
+        this.claimIdleMillis = claimIdleMillis;
+        this.maxDeliveries = maxDeliveries;
+    }
+
+    @PostConstruct
+    public void start() {
+        createGroup();
+        for (int i = 0; i < workers; i++) {
+            Worker worker = new Worker(consumerPrefix + "-" + i);
+            workerList.add(worker);
+            Thread thread = new Thread(worker, "seckill-order-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        long period = Math.max(1000, claimIdleMillis / 2);
+        scheduler.scheduleWithFixedDelay(this::claimSafely, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 统计数据
+     * @return 写入、重复、业务失败、异常、认领、放弃重试的订单数量，批量写入和退化为逐条写入的批数
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("workers", workers);
+        metrics.put("persisted", persisted.sum());
+        metrics.put("duplicated", duplicated.sum());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("failed", failed.sum());
+        metrics.put("claimed", claimed.sum());
+        metrics.put("batches", batches.sum());
+        metrics.put("fallbacks", fallbacks.sum());
+        metrics.put("abandoned", abandoned.sum());
+        return metrics;
+    }
+
+    /**
+     * 创建消费者组，stream不存在时一起创建，组已经存在时忽略
+     */
+    private void createGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.xGroupCreate(
+                    RedisConstants.SECKILL_ORDER_STREAM.getBytes(StandardCharsets.UTF_8),
+                    RedisConstants.SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (RedisSystemException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final Consumer consumer;
+
+        //有订单处理失败或者被认领过来，需要先处理pending-list
+        private final AtomicBoolean pending = new AtomicBoolean(true);
+
+        private Worker(String name) {
+            this.consumer = Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, name);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    if (pending.compareAndSet(true, false)) {
+                        handlePending();
+                    }
+                    //读取新的订单 XREADGROUP GROUP g1 c COUNT n BLOCK ms STREAMS stream.orders >
+                    List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(consumer,
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMillis)),
+                            StreamOffset.create(RedisConstants.SECKILL_ORDER_STREAM, ReadOffset.lastConsumed()));
+                    if (records == null || records.isEmpty()) {
+                        continue;
+                    }
+                    if (!handle(fill(records))) {
+                        pending.set(true);
+                    }
+                } catch (Exception e) {
+                    if (!running) {
+                        return;
+                    }
+                    log.error("处理秒杀订单异常", e);
+                    pending.set(true);
+                    sleep();
+                }
+            }
+        }
+
+        /**
+         * 第一批不够batch-size时继续读取，直到攒够或者等待超过batch-wait-ms
+         */
+        private List<MapRecord<String, Object, Object>> fill(List<MapRecord<String, Object, Object>> records) {
+            if (records.size() >= batchSize || batchWaitMillis <= 0) {
+                return records;
+            }
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(records);
+            long deadline = System.currentTimeMillis() + batchWaitMillis;
+            long remaining;
+            while (batch.size() < batchSize && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                List<MapRecord<String, Object, Object>> more = stringRedisTemplate.opsForStream().read(consumer,
+                        StreamReadOptions.empty().count(batchSize - batch.size()).block(Duration.ofMillis(remaining)),
+                        StreamOffset.create(RedisConstants.SECKILL_ORDER_STREAM, ReadOffset.lastConsumed()));
+                if (more == null || more.isEmpty()) {
+                    break;
+                }
+                batch.addAll(more);
+            }
+            return batch;
+        }
+
+        /**
+         * 处理已经投递给当前消费者、但是还没有确认的订单，直到pending-list为空或者剩下的都失败
+         */
+        private void handlePending() {
+            while (running) {
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(consumer,
+                        StreamReadOptions.empty().count(batchSize),
+                        StreamOffset.create(RedisConstants.SECKILL_ORDER_STREAM, ReadOffset.from("0")));
+                if (records == null || records.isEmpty()) {
+                    return;
+                }
+                //自己的pending-list每次循环都会重新读取，不会空闲到被认领，在这里检查投递次数
+                records = dropExhausted(records);
+                if (records.isEmpty()) {
+                    continue;
+                }
+                if (!handle(records)) {
+                    pending.set(true);
+                    sleep();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 投递次数达到max-deliveries的订单放弃重试，返回剩下的订单
+         */
+        private List<MapRecord<String, Object, Object>> dropExhausted(List<MapRecord<String, Object, Object>> records) {
+            PendingMessages messages = stringRedisTemplate.opsForStream().pending(RedisConstants.SECKILL_ORDER_STREAM,
+                    consumer, Range.closed(records.get(0).getId().getValue(), records.get(records.size() - 1).getId().getValue()),
+                    (long) records.size());
+            List<RecordId> dead = new ArrayList<>();
+            for (PendingMessage message : messages) {
+                if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                    log.error("秒杀订单投递{}次仍然失败，不再重试，recordId={}", message.getTotalDeliveryCount(), message.getId());
+                    dead.add(message.getId());
+                }
+            }
+            if (dead.isEmpty()) {
+                return records;
+            }
+            abandon(dead);
+            List<MapRecord<String, Object, Object>> remaining = new ArrayList<>(records.size());
+            for (MapRecord<String, Object, Object> record : records) {
+                if (!dead.contains(record.getId())) {
+                    remaining.add(record);
+                }
+            }
+            return remaining;
+        }
+    }
+
+    /**
+     * 整批写入数据库，批量写入出现异常时逐条写入，一个订单的异常不影响其它订单；
+     * 成功和业务上失败（库存不足、重复下单）的订单一次确认，出现异常的订单留在pending-list中；
+     * 成功的订单先加入超时队列再确认，被拒绝的订单先归还redis中的库存再确认，失败时整批重新投递
+     * @return 是否全部确认
+     */
+    private boolean handle(List<MapRecord<String, Object, Object>> records) {
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            orders.add(toOrder(record.getValue()));
+        }
+        List<Result> results = null;
+        try {
+            results = voucherOrderService.createVoucherOrders(orders);
+            batches.increment();
+        } catch (Exception e) {
+            fallbacks.increment();
+            log.warn("秒杀订单批量写入异常，逐条写入，size={}", orders.size(), e);
+        }
+        List<RecordId> acks = new ArrayList<>(records.size());
+        List<VoucherOrder> accepted = new ArrayList<>(records.size());
+        List<VoucherOrder> refused = new ArrayList<>();
+        List<VoucherOrder> handled = new ArrayList<>(records.size());
+        List<SeckillResult> outcomes = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            VoucherOrder order = orders.get(i);
+            try {
+                Result result = results != null ? results.get(i) : voucherOrderService.createVoucherOrder(order);
+                if (!Boolean.TRUE.equals(result.getSuccess())) {
+                    rejected.increment();
+                    log.warn("秒杀订单写入失败，orderId={}，原因：{}", order.getId(), result.getErrorMsg());
+                    outcomes.add(new SeckillResult(SeckillResult.FAILED, null, result.getErrorMsg()));
+                    refused.add(order);
+                } else {
+                    if (result.getData() == null) {
+                        //重复投递，订单之前已经写入
+                        duplicated.increment();
+                    } else {
+                        persisted.increment();
+                    }
+                    accepted.add(order);
+                    outcomes.add(new SeckillResult(SeckillResult.SUCCESS, order.getId(), null));
+                }
+                handled.add(order);
+                acks.add(records.get(i).getId());
+            } catch (Exception e) {
+                failed.increment();
+                log.error("秒杀订单写入异常，orderId={}", order.getId(), e);
+            }
+        }
+        //重复投递的订单也重新加入，上次可能在加入之前就失败了
+        orderTimeoutQueue.schedule(accepted);
+        //被拒绝的订单不会写入数据库，归还lua脚本中扣减的库存和占住的用户
+        voucherOrderService.releaseSeckillOrders(refused);
+        seckillResultNotifier.publish(handled, outcomes);
+        if (!acks.isEmpty()) {
+            acknowledge(acks.toArray(new RecordId[0]));
+        }
+        return acks.size() == records.size();
+    }
+
+    private void claimSafely() {
+        try {
+            claim();
+        } catch (RuntimeException e) {
+            log.error("认领秒杀订单异常", e);
+        }
+    }
+
+    /**
+     * 认领空闲太久的订单，平均分给本进程的消费者；投递次数过多的订单归还库存后确认，避免一直重试
+     */
+    private void claim() {
+        PendingMessages messages = stringRedisTemplate.opsForStream().pending(RedisConstants.SECKILL_ORDER_STREAM,
+                RedisConstants.SECKILL_ORDER_GROUP, Range.unbounded(), batchSize * workers);
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        Duration minIdle = Duration.ofMillis(claimIdleMillis);
+        List<RecordId> dead = new ArrayList<>();
+        List<List<RecordId>> assigned = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            assigned.add(new ArrayList<>());
+        }
+        int index = 0;
+        for (PendingMessage message : messages) {
+            if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                continue;
+            }
+            if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                log.error("秒杀订单投递{}次仍然失败，不再重试，recordId={}", message.getTotalDeliveryCount(), message.getId());
+                dead.add(message.getId());
+                continue;
+            }
+            assigned.get(index++ % workers).add(message.getId());
+        }
+        if (!dead.isEmpty()) {
+            abandon(dead);
+        }
+        byte[] key = RedisConstants.SECKILL_ORDER_STREAM.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < workers; i++) {
+            RecordId[] ids = assigned.get(i).toArray(new RecordId[0]);
+            if (ids.length == 0) {
+                continue;
+            }
+            Worker worker = workerList.get(i);
+            //XCLAIM只会认领仍然空闲超过minIdle的订单，其它消费者刚认领过的不会被重复认领
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.xClaim(key,
+                    RedisConstants.SECKILL_ORDER_GROUP, worker.consumer.getName(), minIdle, ids));
+            claimed.add(ids.length);
+            worker.pending.set(true);
+        }
+    }
+
+    /**
+     * 放弃重试的订单，归还redis中的库存和占住的用户后确认
+     */
+    private void abandon(List<RecordId> ids) {
+        List<VoucherOrder> orders = new ArrayList<>(ids.size());
+        for (RecordId id : ids) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                    .range(RedisConstants.SECKILL_ORDER_STREAM, Range.closed(id.getValue(), id.getValue()));
+            if (records != null && !records.isEmpty()) {
+                orders.add(toOrder(records.get(0).getValue()));
+            }
+        }
+        voucherOrderService.releaseSeckillOrders(orders);
+        seckillResultNotifier.publish(orders, orders.stream()
+                .map(o -> new SeckillResult(SeckillResult.FAILED, null, "下单失败，请重试"))
+                .collect(Collectors.toList()));
+        acknowledge(ids.toArray(new RecordId[0]));
+        abandoned.add(ids.size());
+    }
+
+    /**
+     * 确认订单并从stream中删除，只有一个消费者组，确认后的消息不会再被读取，
+     * 不删除的话stream会一直增长
+     */
+    private void acknowledge(RecordId[] ids) {
+        byte[] key = RedisConstants.SECKILL_ORDER_STREAM.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.xAck(key, RedisConstants.SECKILL_ORDER_GROUP, ids);
+            connection.xDel(key, ids);
+            return null;
+        });
+    }
+
+    private static VoucherOrder toOrder(Map<Object, Object> value) {
+        long timeStamp = Long.parseLong(value.get("ts").toString());
+        long count = Long.parseLong(value.get("seq").toString());
+        VoucherOrder order = new VoucherOrder();
+        order.setId(RedisIdWorker.compose(timeStamp, count));
+        order.setUserId(Long.valueOf(value.get("userId").toString()));
+        order.setVoucherId(Long.valueOf(value.get("voucherId").toString()));
+        return order;
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(Math.min(blockMillis, 1000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,155 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillResult;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀下单结果的缓存和通知
+ * 订单消费者写入数据库后，把结果写入用户的结果hash（seckill:result:用户id，field为秒杀券id），
+ * 再发布到seckill:result频道；每个节点收到后唤醒本节点等待这个结果的长轮询请求。
+ * 长轮询使用DeferredResult，等待期间不占用servlet线程；查询只访问redis，不访问数据库
+ */
+@Slf4j
+@Component
+public class SeckillResultNotifier {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //结果在redis中保存的时间
+    private final long ttlSeconds;
+
+    //长轮询最多等待的时间
+    private final long maxWaitMillis;
+
+    //用户id:秒杀券id -> 本节点等待的请求
+    private final Map<String, Set<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder notified = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public SeckillResultNotifier(StringRedisTemplate stringRedisTemplate,
+                                 @Value("${hmdp.seckill.result.ttl-seconds:86400}") long ttlSeconds,
+                                 @Value("${hmdp.seckill.result.max-wait-ms:30000}") long maxWaitMillis) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.ttlSeconds = ttlSeconds;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * 查询下单结果
+     * @return 还没有写入数据库时返回处理中
+     */
+    public SeckillResult get(Long userId, Long voucherId) {
+        Object value = stringRedisTemplate.opsForHash().get(RedisConstants.SECKILL_RESULT_KEY + userId, voucherId.toString());
+        return value == null ? SeckillResult.pending() : JSONUtil.toBean(value.toString(), SeckillResult.class);
+    }
+
+    /**
+     * 等待下单结果，已经有结果时立即返回，否则等到结果写入或者超时（超时返回处理中）
+     * @param waitMillis 最多等待的毫秒数，不超过max-wait-ms
+     */
+    public DeferredResult<Result> await(Long userId, Long voucherId, long waitMillis) {
+        long timeout = Math.max(1, Math.min(waitMillis, maxWaitMillis));
+        DeferredResult<Result> deferred = new DeferredResult<>(timeout, Result.ok(SeckillResult.pending()));
+        String key = userId + ":" + voucherId;
+        //在compute中增删，最后一个请求完成时删除集合，不会和新加入的请求冲突
+        waiters.compute(key, (k, set) -> {
+            set = set == null ? ConcurrentHashMap.newKeySet() : set;
+            set.add(deferred);
+            return set;
+        });
+        deferred.onTimeout(timeouts::increment);
+        deferred.onCompletion(() -> waiters.computeIfPresent(key, (k, set) -> {
+            set.remove(deferred);
+            return set.isEmpty() ? null : set;
+        }));
+        //先注册再查询，查询和通知之间写入的结果不会丢失
+        SeckillResult result = get(userId, voucherId);
+        if (result.getStatus() != SeckillResult.PENDING) {
+            deferred.setResult(Result.ok(result));
+        }
+        return deferred;
+    }
+
+    /**
+     * 写入一批订单的结果并通知等待的请求，由SeckillOrderConsumer在订单写入数据库后调用
+     * @param orders 订单
+     * @param results 和orders一一对应的结果
+     */
+    public void publish(List<VoucherOrder> orders, List<SeckillResult> results) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < orders.size(); i++) {
+                VoucherOrder order = orders.get(i);
+                byte[] key = bytes(RedisConstants.SECKILL_RESULT_KEY + order.getUserId());
+                byte[] field = bytes(order.getVoucherId().toString());
+                byte[] value = bytes(JSONUtil.toJsonStr(results.get(i)));
+                //失败的结果不覆盖已有的结果，例如同一个用户之前成功的订单
+                if (results.get(i).getStatus() == SeckillResult.FAILED) {
+                    connection.hSetNX(key, field, value);
+                } else {
+                    connection.hSet(key, field, value);
+                }
+                connection.expire(key, ttlSeconds);
+                connection.publish(bytes(RedisConstants.SECKILL_RESULT_CHANNEL),
+                        bytes(order.getUserId() + ":" + order.getVoucherId()));
+            }
+            return null;
+        });
+        published.add(orders.size());
+    }
+
+    /**
+     * 收到结果通知，唤醒本节点等待的请求
+     * @param message 用户id:秒杀券id
+     */
+    public void onPublished(String message) {
+        Set<DeferredResult<Result>> set = waiters.get(message);
+        if (set == null || set.isEmpty()) {
+            return;
+        }
+        String[] ids = message.split(":");
+        Result result = Result.ok(get(Long.valueOf(ids[0]), Long.valueOf(ids[1])));
+        for (DeferredResult<Result> deferred : set) {
+            if (deferred.setResult(result)) {
+                notified.increment();
+            }
+        }
+    }
+
+    /**
+     * 统计数据
+     * @return 写入的结果数、唤醒和超时的长轮询请求数、当前等待的请求数
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("published", published.sum());
+        metrics.put("notified", notified.sum());
+        metrics.put("timeouts", timeouts.sum());
+        metrics.put("waiting", waiters.values().stream().mapToInt(Set::size).sum());
+        return metrics;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
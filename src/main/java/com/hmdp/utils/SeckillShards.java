@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+/**
+ * 秒杀库存分片
+ * 超热门的秒杀券把库存拆到K个key上，每个分片的key带不同的hash tag，在集群中落在不同的slot（不同的节点）；
+ * 用户按id固定到一个主分片，已下单用户记录在主分片的集合中，主分片卖完后依次向后面的分片借库存
+ */
+public final class SeckillShards {
+
+    private SeckillShards() {
+    }
+
+    /**
+     * 分片库存的key，例如 seckill:stock:{10:3}
+     */
+    public static String stockKey(Long voucherId, int shard) {
+        return RedisConstants.SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 分片中已下单用户的key，和同一分片的库存在同一个slot
+     */
+    public static String orderKey(Long voucherId, int shard) {
+        return RedisConstants.SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 分片中已经归还过库存的订单id，和同一分片的库存在同一个slot
+     */
+    public static String releasedKey(Long voucherId, int shard) {
+        return RedisConstants.SECKILL_RELEASED_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 用户的主分片
+     */
+    public static int homeShard(Long userId, int shards) {
+        return (int) Math.floorMod(userId, (long) shards);
+    }
+
+    /**
+     * 把库存平均拆到各个分片，除不尽的部分分给前面的分片
+     * @param stock 总库存
+     * @param shards 分片数量
+     * @return 每个分片的库存
+     */
+    public static int[] split(int stock, int shards) {
+        int[] result = new int[shards];
+        for (int i = 0; i < shards; i++) {
+            result[i] = stock / shards + (i < stock % shards ? 1 : 0);
+        }
+        return result;
+    }
+}
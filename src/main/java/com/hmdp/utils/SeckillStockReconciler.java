@@ -0,0 +1,287 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀库存对账
+ * 每下一单，redis中库存-1、已下单人数+1，数据库中库存-1、订单数+1，
+ * 所以 redis库存 + 已下单人数 和 数据库库存 + 订单数 各自不变（订单还在stream中没有写入时也成立），两者的差就是漂移。
+ * 已下单人数 - 订单数 是还没有写入数据库的订单数。
+ *
+ * 按voucher_id游标每次只检查一页未结束的秒杀券，redis和数据库各一次批量读取，代价和秒杀券总数无关；
+ * 两边的读取不在同一时刻，同一个漂移值连续两次出现才确认，开启修复时以数据库为准修改redis库存
+ */
+@Slf4j
+@Component
+public class SeckillStockReconciler {
+
+    private static final DefaultRedisScript<List> SNAPSHOT_SCRIPT;
+    static {
+        SNAPSHOT_SCRIPT = new DefaultRedisScript<>();
+        SNAPSHOT_SCRIPT.setLocation(new ClassPathResource("stock_snapshot.lua"));
+        SNAPSHOT_SCRIPT.setResultType(List.class);
+    }
+
+    //已取消的订单
+    private static final int STATUS_CANCELLED = 4;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ISeckillVoucherService seckillVoucherService;
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final boolean enabled;
+
+    private final int pageSize;
+
+    //是否修复确认的漂移
+    private final boolean repair;
+
+    //下一页的起始voucher_id
+    private volatile long cursor;
+
+    //第一次发现的漂移，等待下一次确认：券id -> 漂移值
+    private final Map<Long, Long> suspects = new ConcurrentHashMap<>();
+
+    //确认的漂移：券id -> 详情
+    private final Map<Long, Map<String, Object>> drifts = new ConcurrentHashMap<>();
+
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder confirmed = new LongAdder();
+    private final LongAdder repaired = new LongAdder();
+    private volatile long inFlight;
+    private volatile LocalDateTime lastPassAt;
+
+    public SeckillStockReconciler(StringRedisTemplate stringRedisTemplate, ISeckillVoucherService seckillVoucherService,
+                                  IVoucherOrderService voucherOrderService,
+                                  @Value("${hmdp.seckill.reconcile.enabled:true}") boolean enabled,
+                                  @Value("${hmdp.seckill.reconcile.page-size:200}") int pageSize,
+                                  @Value("${hmdp.seckill.reconcile.repair:false}") boolean repair) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillVoucherService = seckillVoucherService;
+        this.voucherOrderService = voucherOrderService;
+        this.enabled = enabled;
+        this.pageSize = pageSize;
+        this.repair = repair;
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.seckill.reconcile.interval-ms:10000}",
+            fixedDelayString = "${hmdp.seckill.reconcile.interval-ms:10000}")
+    public void reconcileSafely() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            reconcilePage();
+        } catch (RuntimeException e) {
+            log.error("秒杀库存对账失败", e);
+        }
+    }
+
+    /**
+     * 检查下一页秒杀券，到最后一页后从头开始
+     */
+    public synchronized void reconcilePage() {
+        List<SeckillVoucher> page = seckillVoucherService.query()
+                .gt("voucher_id", cursor).gt("end_time", LocalDateTime.now())
+                .orderByAsc("voucher_id").last("limit " + pageSize).list();
+        pages.increment();
+        if (page.size() < pageSize) {
+            cursor = 0;
+            passes.increment();
+            lastPassAt = LocalDateTime.now();
+        } else {
+            cursor = page.get(page.size() - 1).getVoucherId();
+        }
+        if (page.isEmpty()) {
+            return;
+        }
+        List<Long> ids = page.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+        Map<Long, long[]> redis = readRedis(ids);
+        Map<Long, Long> orders = countOrders(ids);
+        long pageInFlight = 0;
+        for (SeckillVoucher voucher : page) {
+            Long voucherId = voucher.getVoucherId();
+            long[] snapshot = redis.get(voucherId);
+            if (snapshot == null) {
+                //还没有预加载，没有可比较的数据
+                continue;
+            }
+            checked.increment();
+            long orderCount = orders.getOrDefault(voucherId, 0L);
+            long redisTotal = snapshot[0] + snapshot[1];
+            long dbTotal = voucher.getStock() + orderCount;
+            pageInFlight += Math.max(0, snapshot[1] - orderCount);
+            long drift = redisTotal - dbTotal;
+            if (drift == 0) {
+                suspects.remove(voucherId);
+                drifts.remove(voucherId);
+                continue;
+            }
+            Long previous = suspects.put(voucherId, drift);
+            if (previous == null || previous != drift) {
+                continue;
+            }
+            confirm(voucherId, drift, snapshot, voucher.getStock(), orderCount);
+        }
+        inFlight = pageInFlight;
+    }
+
+    /**
+     * 统计数据
+     * @return 检查的页数、轮数、券数，确认和修复的漂移，当前存在漂移的券
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("repair", repair);
+        metrics.put("cursor", cursor);
+        metrics.put("pages", pages.sum());
+        metrics.put("passes", passes.sum());
+        metrics.put("lastPassAt", lastPassAt);
+        metrics.put("checked", checked.sum());
+        metrics.put("confirmed", confirmed.sum());
+        metrics.put("repaired", repaired.sum());
+        metrics.put("inFlightLastPage", inFlight);
+        metrics.put("drifting", drifts.size());
+        metrics.put("totalDrift", drifts.values().stream().mapToLong(d -> Math.abs((Long) d.get("drift"))).sum());
+        metrics.put("drifts", new ArrayList<>(drifts.values()));
+        return metrics;
+    }
+
+    private void confirm(Long voucherId, long drift, long[] snapshot, long dbStock, long orderCount) {
+        suspects.remove(voucherId);
+        confirmed.increment();
+        Map<String, Object> detail = new LinkedHashMap<>();
+        detail.put("voucherId", voucherId);
+        detail.put("drift", drift);
+        detail.put("redisStock", snapshot[0]);
+        detail.put("buyers", snapshot[1]);
+        detail.put("dbStock", dbStock);
+        detail.put("orders", orderCount);
+        detail.put("detectedAt", LocalDateTime.now());
+        log.warn("秒杀库存漂移：{}", detail);
+        if (!repair) {
+            drifts.put(voucherId, detail);
+            return;
+        }
+        //以数据库为准，用增量修改redis库存，不影响同时在进行的扣减
+        String shards = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SHARDS_KEY + voucherId);
+        if (shards == null) {
+            stringRedisTemplate.opsForHash().increment(RedisConstants.SECKILL_VOUCHER_KEY + voucherId, "stock", -drift);
+        } else {
+            stringRedisTemplate.opsForValue().increment(SeckillShards.stockKey(voucherId, 0), -drift);
+        }
+        repaired.increment();
+        drifts.remove(voucherId);
+        if (drift < 0) {
+            //补回了库存，清除售罄标记
+            voucherOrderService.resetSoldOut(voucherId, true);
+        }
+    }
+
+    /**
+     * 批量读取redis中的库存和已下单人数，分片的券把各个分片加起来
+     * @return 券id -> {库存, 已下单人数}，没有加载的券不包含在内
+     */
+    private Map<Long, long[]> readRedis(List<Long> ids) {
+        List<String> shardValues = stringRedisTemplate.opsForValue().multiGet(ids.stream()
+                .map(id -> RedisConstants.SECKILL_SHARDS_KEY + id).collect(Collectors.toList()));
+        byte[] script = SNAPSHOT_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < ids.size(); i++) {
+                Long id = ids.get(i);
+                int shards = shardCount(shardValues, i);
+                if (shards <= 1) {
+                    connection.eval(script, ReturnType.MULTI, 4,
+                            bytes(RedisConstants.SECKILL_VOUCHER_KEY + id), bytes(RedisConstants.SECKILL_ORDER_KEY + id),
+                            bytes(BuyerTracking.bitmapKey(id)), bytes(BuyerTracking.chunkIndexKey(id)),
+                            bytes(RedisConstants.SECKILL_BUYERS_KEY + id + ":"));
+                    continue;
+                }
+                for (int s = 0; s < shards; s++) {
+                    connection.get(bytes(SeckillShards.stockKey(id, s)));
+                    connection.sCard(bytes(SeckillShards.orderKey(id, s)));
+                }
+            }
+            return null;
+        });
+        Map<Long, long[]> snapshots = new HashMap<>(ids.size() * 2);
+        int index = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            int shards = shardCount(shardValues, i);
+            if (shards <= 1) {
+                List<?> snapshot = (List<?>) results.get(index++);
+                long stock = toLong(snapshot.get(0));
+                if (stock >= 0) {
+                    snapshots.put(ids.get(i), new long[]{stock, toLong(snapshot.get(1))});
+                }
+                continue;
+            }
+            long stock = 0;
+            long buyers = 0;
+            for (int s = 0; s < shards; s++) {
+                Object value = results.get(index++);
+                stock += value == null ? 0 : Long.parseLong(value.toString());
+                buyers += toLong(results.get(index++));
+            }
+            snapshots.put(ids.get(i), new long[]{stock, buyers});
+        }
+        return snapshots;
+    }
+
+    /**
+     * 一次分组查询每个券的有效订单数
+     */
+    private Map<Long, Long> countOrders(List<Long> ids) {
+        List<Map<String, Object>> rows = voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                .select("voucher_id", "count(*) AS total")
+                .in("voucher_id", ids).ne("status", STATUS_CANCELLED)
+                .groupBy("voucher_id"));
+        Map<Long, Long> counts = new HashMap<>(rows.size() * 2);
+        for (Map<String, Object> row : rows) {
+            counts.put(toLong(row.get("voucher_id")), toLong(row.get("total")));
+        }
+        return counts;
+    }
+
+    private static int shardCount(List<String> shardValues, int i) {
+        String value = shardValues == null ? null : shardValues.get(i);
+        return value == null ? 1 : Integer.parseInt(value);
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,105 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.SeckillTicket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀排队（虚拟等候室）
+ * 秒杀开始时所有用户同时涌入，先在这里取号，再按固定速率放行，被放行的用户才会执行秒杀脚本；
+ * 排队中的用户拿到自己的位置和预计等待时间，之后重复请求即可（号码不变）。
+ * 排队人数超过剩余库存的factor倍时，后面的人已经不可能买到，直接拒绝（分片库存的券不做这个判断）。
+ * 放行进度按令牌桶在lua脚本中推进，前面没有人排队且还有令牌时第一次请求就直接放行；
+ * 所有节点共享同一个队伍，不需要定时任务。
+ * 秒杀开始前不取号、不放行；每次秒杀请求会多一次脚本调用，默认关闭，预计会有大量用户同时涌入的活动再开启
+ */
+@Component
+public class SeckillWaitingRoom {
+
+    private static final DefaultRedisScript<List> WAITING_ROOM_SCRIPT;
+    static {
+        WAITING_ROOM_SCRIPT = new DefaultRedisScript<>();
+        WAITING_ROOM_SCRIPT.setLocation(new ClassPathResource("waiting_room.lua"));
+        WAITING_ROOM_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final boolean enabled;
+
+    //每秒放行的人数
+    private final long admitRate;
+
+    //排队人数上限与剩余库存的比例
+    private final double rejectFactor;
+
+    //排队数据的有效期
+    private final long ttlSeconds;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder waiting = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public SeckillWaitingRoom(StringRedisTemplate stringRedisTemplate,
+                              @Value("${hmdp.seckill.waiting-room.enabled:false}") boolean enabled,
+                              @Value("${hmdp.seckill.waiting-room.admit-rate:1000}") long admitRate,
+                              @Value("${hmdp.seckill.waiting-room.reject-factor:2.0}") double rejectFactor,
+                              @Value("${hmdp.seckill.waiting-room.ttl-seconds:86400}") long ttlSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.enabled = enabled;
+        this.admitRate = admitRate;
+        this.rejectFactor = rejectFactor;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * 取号或者查询排队状态
+     * @param voucherId 秒杀券id
+     * @param userId 用户id
+     * @return 是否放行，排队中时包含位置和预计等待时间
+     */
+    public SeckillTicket enter(Long voucherId, Long userId) {
+        if (!enabled) {
+            return new SeckillTicket(SeckillTicket.ADMITTED, 0L, 0L);
+        }
+        List<String> keys = Arrays.asList(RedisConstants.SECKILL_TICKET_KEY + voucherId,
+                RedisConstants.SECKILL_ROOM_KEY + voucherId, RedisConstants.SECKILL_VOUCHER_KEY + voucherId);
+        List<?> result = stringRedisTemplate.execute(WAITING_ROOM_SCRIPT, keys, userId.toString(),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(admitRate), String.valueOf(rejectFactor),
+                String.valueOf(ttlSeconds));
+        int status = ((Long) result.get(0)).intValue();
+        long position = (Long) result.get(1);
+        if (status == SeckillTicket.ADMITTED) {
+            admitted.increment();
+        } else if (status == SeckillTicket.WAITING) {
+            waiting.increment();
+        } else if (status == SeckillTicket.REJECTED) {
+            rejected.increment();
+        }
+        long waitMillis = status == SeckillTicket.WAITING ? position * 1000 / Math.max(1, admitRate) : 0;
+        return new SeckillTicket(status, position, waitMillis);
+    }
+
+    /**
+     * 统计数据
+     * @return 放行、排队、拒绝的请求次数
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("admitRate", admitRate);
+        metrics.put("admitted", admitted.sum());
+        metrics.put("waiting", waiting.sum());
+        metrics.put("rejected", rejected.sum());
+        return metrics;
+    }
+}
@@ -0,0 +1,127 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * @TieredCacheable和@CacheEvictAfterCommit的切面
+ * 把方法本身作为数据库查询的lambda交给CacheClient，key由SpEL表达式计算
+ */
+@Slf4j
+@Aspect
+@Component
+public class TieredCacheAspect {
+
+    private static final SpelExpressionParser PARSER = new SpelExpressionParser();
+
+    private static final ParameterNameDiscoverer NAME_DISCOVERER = new DefaultParameterNameDiscoverer();
+
+    //SpEL表达式 -> 解析结果，每个表达式只解析一次
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Around("@annotation(tieredCacheable)")
+    @SuppressWarnings("unchecked")
+    public Object cacheable(ProceedingJoinPoint pjp, TieredCacheable tieredCacheable) throws Throwable {
+        Method method = targetMethod(pjp);
+        Object id = evaluate(tieredCacheable.key(), method, pjp.getArgs(), null);
+        if (id == null) {
+            return pjp.proceed();
+        }
+        String prefix = tieredCacheable.keyPrefix();
+        Long ttl = tieredCacheable.ttl();
+        Function<Object, Object> dbFeedBack = ignored -> proceed(pjp);
+        try {
+            if (tieredCacheable.elementType() != void.class) {
+                Class<Object> elementType = (Class<Object>) tieredCacheable.elementType();
+                return cacheClient.queryListPassThrough(prefix, id, elementType, ttl, tieredCacheable.unit(),
+                        () -> (List<Object>) proceed(pjp));
+            }
+            Class<Object> type = (Class<Object>) method.getReturnType();
+            switch (tieredCacheable.strategy()) {
+                case PASS_THROUGH:
+                    return cacheClient.queryShopPassThrough(prefix, id, type, ttl, tieredCacheable.unit(), dbFeedBack);
+                case LOGICAL_EXPIRE:
+                    //没有预热过的key由CacheClient加锁加载，数据库中没有时缓存空值
+                    return cacheClient.queryWithLogicalExpire(prefix, id, type, ttl, tieredCacheable.unit(), dbFeedBack);
+                case XFETCH:
+                    return cacheClient.queryWithXFetch(prefix, id, type, ttl, tieredCacheable.unit(), dbFeedBack);
+                case HASH:
+                    return cacheClient.queryHash(prefix, id, type, ttl, tieredCacheable.unit(), dbFeedBack);
+                default:
+                    return cacheClient.queryWithMutex(prefix, id, type, ttl, tieredCacheable.unit(), dbFeedBack);
+            }
+        } catch (InvocationFailure e) {
+            //方法本身抛出的异常原样抛出
+            throw e.getCause();
+        }
+    }
+
+    @AfterReturning(pointcut = "@annotation(com.hmdp.utils.CacheEvictAfterCommit) || @annotation(com.hmdp.utils.CacheEvictAfterCommit.List)",
+            returning = "result")
+    public void evictAfterCommit(JoinPoint joinPoint, Object result) {
+        Method method = targetMethod(joinPoint);
+        for (CacheEvictAfterCommit evict : AnnotatedElementUtils.findMergedRepeatableAnnotations(method, CacheEvictAfterCommit.class)) {
+            Object id = evaluate(evict.key(), method, joinPoint.getArgs(), result);
+            if (id != null) {
+                cacheInvalidator.invalidateAfterCommit(evict.keyPrefix() + id);
+            }
+        }
+    }
+
+    private Object evaluate(String key, Method method, Object[] args, Object result) {
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(null, method, args, NAME_DISCOVERER);
+        context.setVariable("result", result);
+        return expressions.computeIfAbsent(key, PARSER::parseExpression).getValue(context);
+    }
+
+    /**
+     * 注解写在实现类上，代理拿到的可能是接口方法，这里换成实现类的方法
+     */
+    private static Method targetMethod(JoinPoint joinPoint) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        return joinPoint.getTarget() == null ? method : AopUtils.getMostSpecificMethod(method, joinPoint.getTarget().getClass());
+    }
+
+    private static Object proceed(ProceedingJoinPoint pjp) {
+        try {
+            return pjp.proceed();
+        } catch (Throwable e) {
+            throw new InvocationFailure(e);
+        }
+    }
+
+    /**
+     * 包装被缓存方法抛出的异常，穿过CacheClient的lambda后再还原
+     */
+    private static class InvocationFailure extends RuntimeException {
+        private InvocationFailure(Throwable cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 方法返回值使用CacheClient缓存（本地缓存 + redis + 数据库）
+ * 空值也会被缓存，避免缓存穿透；返回List的方法需要指定elementType
+ * 例：@TieredCacheable(keyPrefix = RedisConstants.CACHE_USER_KEY, key = "#id")
+ *
+ * 和@Transactional一样依赖代理，同一个类中的方法互相调用不会生效
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface TieredCacheable {
+
+    /**
+     * key前缀，本地缓存、布隆过滤器、命中率统计都按前缀区分
+     */
+    String keyPrefix();
+
+    /**
+     * key中id部分的SpEL表达式，可以使用参数名（#id）或者参数位置（#p0）
+     */
+    String key();
+
+    /**
+     * 缓存策略，逻辑过期类的策略在缓存不存在时由当前线程加载并写入
+     */
+    CacheStrategy strategy() default CacheStrategy.MUTEX;
+
+    /**
+     * 有效期，实际有效期由TtlPolicy按访问频率调整
+     */
+    long ttl() default 30;
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    /**
+     * 方法返回List时的元素类型
+     */
+    Class<?> elementType() default void.class;
+}
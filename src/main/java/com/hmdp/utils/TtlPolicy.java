@@ -0,0 +1,186 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存有效期策略
+ * 用会衰减的Count-Min Sketch统计每个key最近的访问次数和修改次数：
+ * 经常被读、很少被改的key延长有效期，很少被读的key缩短有效期，
+ * 最后再加上随机抖动，避免一起写入的数据在同一时刻集中过期
+ *
+ * 统计数据：按有效期缩短节省的 字节*秒，以及未来每秒过期key数量的峰值（固定有效期 vs 实际有效期）
+ */
+@Slf4j
+@Component
+public class TtlPolicy {
+
+    private final boolean enabled;
+
+    //随机抖动的比例，例如0.1表示在 ±10% 之间随机
+    private final double jitterRatio;
+
+    //有效期的缩放范围
+    private final double minFactor;
+    private final double maxFactor;
+
+    //累计访问次数达到该值后所有计数减半，让旧的访问逐渐失去影响
+    private final long decayThreshold;
+
+    private final CountMinSketch reads = new CountMinSketch(4, 1 << 16);
+
+    private final CountMinSketch writes = new CountMinSketch(4, 1 << 14);
+
+    private final AtomicLong additions = new AtomicLong();
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder shrunk = new LongAdder();
+    private final LongAdder stretched = new LongAdder();
+    private final LongAdder byteSecondsSaved = new LongAdder();
+    private final LongAdder byteSecondsAdded = new LongAdder();
+
+    //过期的秒 -> 这一秒过期的key数量，分别按固定有效期和实际有效期统计
+    private final Map<Long, LongAdder> baseExpiries = new ConcurrentHashMap<>();
+    private final Map<Long, LongAdder> actualExpiries = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    public TtlPolicy(@Value("${hmdp.cache.ttl.enabled:true}") boolean enabled,
+                     @Value("${hmdp.cache.ttl.jitter-ratio:0.1}") double jitterRatio,
+                     @Value("${hmdp.cache.ttl.min-factor:0.5}") double minFactor,
+                     @Value("${hmdp.cache.ttl.max-factor:2.0}") double maxFactor,
+                     @Value("${hmdp.cache.ttl.decay-threshold:100000}") long decayThreshold) {
+        this.enabled = enabled;
+        this.jitterRatio = jitterRatio;
+        this.minFactor = minFactor;
+        this.maxFactor = maxFactor;
+        this.decayThreshold = decayThreshold;
+        //已经过去的秒不再需要统计
+        scheduler.scheduleWithFixedDelay(() -> {
+            long now = System.currentTimeMillis() / 1000;
+            baseExpiries.keySet().removeIf(second -> second < now);
+            actualExpiries.keySet().removeIf(second -> second < now);
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 记录一次读请求
+     * @param key redis的key
+     */
+    public void recordRead(String key) {
+        reads.add(key, 1);
+        if (additions.incrementAndGet() >= decayThreshold) {
+            additions.set(0);
+            reads.halve();
+            writes.halve();
+        }
+    }
+
+    /**
+     * 记录一次修改（缓存失效）
+     * @param key redis的key
+     */
+    public void recordWrite(String key) {
+        writes.add(key, 1);
+    }
+
+    /**
+     * 计算有数据的key的有效期
+     * 缩放系数 = 0.5 + 0.25 * log2(1 + 读次数)，修改比读还多时不延长，再限制在[minFactor, maxFactor]之间
+     * @param key redis的key
+     * @param time 基础有效期
+     * @param unit 时间单位
+     * @param size 数据的字节数，用于统计节省的内存
+     * @return 实际有效期，单位秒
+     */
+    public long ttlSeconds(String key, long time, TimeUnit unit, int size) {
+        long base = unit.toSeconds(time);
+        if (!enabled) {
+            return base;
+        }
+        long readCount = reads.estimate(key);
+        double factor = 0.5 + 0.25 * (Math.log(1 + readCount) / Math.log(2));
+        if (writes.estimate(key) >= readCount) {
+            factor = Math.min(factor, 1.0);
+        }
+        factor = Math.max(minFactor, Math.min(maxFactor, factor));
+        long ttl = jitter((long) (base * factor));
+        record(base, ttl, size);
+        return ttl;
+    }
+
+    /**
+     * 计算空值的有效期，只加抖动
+     * @param time 基础有效期
+     * @param unit 时间单位
+     * @return 实际有效期，单位秒
+     */
+    public long nullTtlSeconds(long time, TimeUnit unit) {
+        long base = unit.toSeconds(time);
+        return enabled ? jitter(base) : base;
+    }
+
+    /**
+     * 统计数据
+     * @return 调整次数、节省的字节*秒、未来每秒过期数量的峰值
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("issued", issued.sum());
+        metrics.put("shrunk", shrunk.sum());
+        metrics.put("stretched", stretched.sum());
+        metrics.put("byteSecondsSaved", byteSecondsSaved.sum());
+        metrics.put("byteSecondsAdded", byteSecondsAdded.sum());
+        metrics.put("peakExpiriesPerSecondFixedTtl", peak(baseExpiries));
+        metrics.put("peakExpiriesPerSecondActual", peak(actualExpiries));
+        return metrics;
+    }
+
+    private long jitter(long ttl) {
+        double offset = jitterRatio <= 0 ? 0 : ThreadLocalRandom.current().nextDouble(-jitterRatio, jitterRatio);
+        return Math.max(1, Math.round(ttl * (1 + offset)));
+    }
+
+    private void record(long base, long ttl, int size) {
+        issued.increment();
+        if (ttl < base) {
+            shrunk.increment();
+            byteSecondsSaved.add((base - ttl) * size);
+        } else if (ttl > base) {
+            stretched.increment();
+            byteSecondsAdded.add((ttl - base) * size);
+        }
+        long now = System.currentTimeMillis() / 1000;
+        baseExpiries.computeIfAbsent(now + base, s -> new LongAdder()).increment();
+        actualExpiries.computeIfAbsent(now + ttl, s -> new LongAdder()).increment();
+    }
+
+    private static long peak(Map<Long, LongAdder> expiries) {
+        long now = System.currentTimeMillis() / 1000;
+        long peak = 0;
+        for (Map.Entry<Long, LongAdder> entry : expiries.entrySet()) {
+            if (entry.getKey() >= now) {
+                peak = Math.max(peak, entry.getValue().sum());
+            }
+        }
+        return peak;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,18 @@
+--从数据库回填hash：读缓存时记下的版本号和当前的版本号一致才写入，
+--读数据库期间有修改（hash_update.lua递增了版本号）时放弃写入，避免用旧数据覆盖
+--KEYS[1]：hash的key
+--ARGV[1]：读缓存时的版本号，没有时为0 ARGV[2]：有效期（秒） ARGV[3..n]：依次为字段名和值
+local key = KEYS[1]
+local version = tonumber(redis.call('hget', key, '_v')) or 0
+if(version ~= tonumber(ARGV[1])) then
+    return 0
+end
+redis.call('del', key)
+for i = 3, #ARGV, 2 do
+    redis.call('hset', key, ARGV[i], ARGV[i + 1])
+end
+if(version > 0) then
+    redis.call('hset', key, '_v', version)
+end
+redis.call('expire', key, ARGV[2])
+return 1
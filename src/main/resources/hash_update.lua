@@ -0,0 +1,25 @@
+--只在hash已经存在时修改字段，避免缓存过期后写出只有部分字段的hash
+--每次修改都递增hash中的版本号，读请求回填时发现版本号变化就放弃写入（见hash_fill.lua），
+--hash不存在或者是空值时只留下版本号，短时间后过期
+--KEYS[1]：hash的key
+--ARGV[1]：操作类型 incr：字段自增 set：覆盖字段 ARGV[2]：只有版本号时的有效期（秒）
+--incr时ARGV[3]为字段名，ARGV[4]为增量；set时ARGV[3..n]依次为字段名和值
+local key = KEYS[1]
+local size = redis.call('hlen', key)
+local version = redis.call('hexists', key, '_v')
+if(size == version or redis.call('hexists', key, '_null') == 1) then
+    --缓存不存在，返回nil，下次查询时从数据库加载完整数据
+    local newVersion = (tonumber(redis.call('hget', key, '_v')) or 0) + 1
+    redis.call('del', key)
+    redis.call('hset', key, '_v', newVersion)
+    redis.call('expire', key, ARGV[2])
+    return nil
+end
+redis.call('hincrby', key, '_v', 1)
+if(ARGV[1] == 'incr') then
+    return redis.call('hincrby', key, ARGV[3], ARGV[4])
+end
+for i = 3, #ARGV, 2 do
+    redis.call('hset', key, ARGV[i], ARGV[i + 1])
+end
+return 0
@@ -0,0 +1,23 @@
+--认领即将超时的未支付订单
+--KEYS[1]：超时队列（ZSET，score为超时时间） KEYS[2]：已认领的订单（ZSET，score为租约到期时间）
+--ARGV[1]：当前时间 ARGV[2]：认领超时时间不晚于该值的订单 ARGV[3]：最多认领的数量 ARGV[4]：租约，超时时间之后多久没有处理完放回队列
+local queueKey = KEYS[1]
+local claimedKey = KEYS[2]
+local now = ARGV[1]
+local limit = tonumber(ARGV[3])
+local lease = tonumber(ARGV[4])
+
+--租约到期说明认领的节点已经宕机，放回队列，立即超时
+local lost = redis.call('zrangebyscore', claimedKey, '-inf', now, 'LIMIT', 0, limit)
+for i = 1, #lost do
+    redis.call('zadd', queueKey, now, lost[i])
+    redis.call('zrem', claimedKey, lost[i])
+end
+
+--返回 {订单id, 超时时间, ...}
+local items = redis.call('zrangebyscore', queueKey, '-inf', ARGV[2], 'WITHSCORES', 'LIMIT', 0, limit)
+for i = 1, #items, 2 do
+    redis.call('zadd', claimedKey, tonumber(items[i + 1]) + lease, items[i])
+    redis.call('zrem', queueKey, items[i])
+end
+return items
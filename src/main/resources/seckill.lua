@@ -1,27 +1,81 @@
 --参数列表
+--KEYS[1]：秒杀券key（hash，stock：库存 begin：开始时间 end：结束时间 buyers：记录已下单用户的方式） KEYS[2]：已下单用户key（SET）
+--KEYS[3]：订单序列号key KEYS[4]：订单stream KEYS[5]：已下单用户位图 KEYS[6]：用户所在的分块位图 KEYS[7]：分块的索引
+--ARGV[1]：优惠券ID ARGV[2]：用户ID ARGV[3]：订单id的时间戳部分 ARGV[4]：当前时间（毫秒） ARGV[5]：用户所在的块 ARGV[6]：用户在块中的偏移量
+local voucherKey = KEYS[1]
+local orderKey = KEYS[2]
+local idKey = KEYS[3]
+local streamKey = KEYS[4]
+local bitmapKey = KEYS[5]
+local chunkKey = KEYS[6]
+local chunkIndexKey = KEYS[7]
 --优惠券ID
 local voucherId = ARGV[1]
---用户列表
+--用户ID
 local userId = ARGV[2]
---库存key
-local stockKey = 'seckill:stock' .. voucherId
---订单key
-local orderKey = 'seckill:stock' .. voucherId
+local timeStamp = ARGV[3]
+local now = tonumber(ARGV[4])
+local chunk = ARGV[5]
+local chunkOffset = ARGV[6]
 
 --业务
---判断库存是否小于0
-if(tonumber(redis.call('get',stockKey)) <= 0) then
+local voucher = redis.call('hmget', voucherKey, 'stock', 'begin', 'end', 'buyers')
+--判断秒杀是否开始，还没有预加载的券也是尚未开始，返回3
+if(voucher[2] == false or now < tonumber(voucher[2])) then
+    return {3, 0}
+end
+--判断秒杀是否结束，返回4
+if(now > tonumber(voucher[3])) then
+    return {4, 0}
+end
+
+--判断库存是否充足
+local stock = tonumber(voucher[1])
+if(stock == nil or stock <= 0) then
     --库存不足返回1
-    return 1
+    return {1, 0}
 end
 
 --判断用户是否下过单
-if(redis.call('sismember',orderKey,userId) == 1) then
+local mode = voucher[4]
+local bought
+if(mode == 'BITMAP') then
+    bought = redis.call('getbit', bitmapKey, userId) == 1
+elseif(mode == 'CHUNKED_BITMAP') then
+    bought = redis.call('getbit', chunkKey, chunkOffset) == 1
+else
+    bought = redis.call('sismember', orderKey, userId) == 1
+end
+if(bought) then
     --用户下过单，返回2
-    return 2
+    return {2, 0}
 end
 
 --扣除库存
-redis.call('incrby',stockKey,-1)
---保存用户
-redis.call('sadd',orderKey,userId)
\ No newline at end of file
+redis.call('hincrby', voucherKey, 'stock', -1)
+--保存用户，第一个用户写入时才创建的key和秒杀券一起过期（预加载时这些key还不存在，设置不了过期时间）
+local ttl = redis.call('pttl', voucherKey)
+local function expireNew(key)
+    if(ttl > 0 and redis.call('pttl', key) == -1) then
+        redis.call('pexpire', key, ttl)
+    end
+end
+if(mode == 'BITMAP') then
+    redis.call('setbit', bitmapKey, userId, 1)
+    expireNew(bitmapKey)
+elseif(mode == 'CHUNKED_BITMAP') then
+    redis.call('setbit', chunkKey, chunkOffset, 1)
+    if(redis.call('sadd', chunkIndexKey, chunk) == 1) then
+        --新的块
+        expireNew(chunkKey)
+        expireNew(chunkIndexKey)
+    end
+else
+    redis.call('sadd', orderKey, userId)
+    expireNew(orderKey)
+end
+--生成订单序列号，和时间戳拼接成订单id（lua的数字精度不够，拼接在java中完成）
+local seq = redis.call('incr', idKey)
+--订单写入stream，由消费者组异步写入数据库
+redis.call('xadd', streamKey, '*', 'ts', timeStamp, 'seq', seq, 'userId', userId, 'voucherId', voucherId)
+return {0, seq}
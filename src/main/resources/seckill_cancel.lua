@@ -0,0 +1,48 @@
+--归还没有生效的订单占用的库存（超时取消、数据库拒绝、放弃重试），同一个秒杀券的订单一次执行
+--KEYS[1]：秒杀券key（hash） KEYS[2]：已下单用户key（SET） KEYS[3]：已下单用户位图 KEYS[4]：已归还的订单id（SET）
+--KEYS[4+i]：第i个用户所在的分块位图
+--ARGV[4i-3]：订单ID ARGV[4i-2]：用户ID ARGV[4i-1]：用户在块中的偏移量 ARGV[4i]：1表示保留已下单用户（用户在库中已经有其它订单）
+local voucherKey = KEYS[1]
+local orderKey = KEYS[2]
+local bitmapKey = KEYS[3]
+local releasedKey = KEYS[4]
+local n = #ARGV / 4
+
+--秒杀券已经从redis中删除（活动结束），不需要归还
+if(redis.call('exists', voucherKey) == 0) then
+    return 0
+end
+local mode = redis.call('hget', voucherKey, 'buyers')
+local returned = 0
+for i = 1, n do
+    local orderId = ARGV[4 * i - 3]
+    local userId = ARGV[4 * i - 2]
+    --每个订单只归还一次，重复执行时不会多加
+    if(redis.call('sadd', releasedKey, orderId) == 1) then
+        if(ARGV[4 * i] == '1') then
+            returned = returned + 1
+        else
+            local removed
+            if(mode == 'BITMAP') then
+                removed = redis.call('setbit', bitmapKey, userId, 0)
+            elseif(mode == 'CHUNKED_BITMAP') then
+                removed = redis.call('setbit', KEYS[4 + i], ARGV[4 * i - 1], 0)
+            else
+                removed = redis.call('srem', orderKey, userId)
+            end
+            --用户还在才归还库存
+            if(removed == 1) then
+                returned = returned + 1
+            end
+        end
+    end
+end
+if(returned > 0) then
+    redis.call('hincrby', voucherKey, 'stock', returned)
+end
+--已归还的订单id和秒杀券一起过期
+local ttl = redis.call('pttl', voucherKey)
+if(ttl > 0) then
+    redis.call('pexpire', releasedKey, ttl)
+end
+return returned
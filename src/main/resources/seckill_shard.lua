@@ -0,0 +1,25 @@
+--分片库存的秒杀，在用户的主分片上执行
+--KEYS[1]：主分片库存key KEYS[2]：主分片已下单用户key
+--ARGV[1]：用户ID
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local userId = ARGV[1]
+
+--判断用户是否下过单，下过单返回2
+if(redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+--先占住用户，避免同一个用户在向其它分片借库存期间重复下单
+redis.call('sadd', orderKey, userId)
+--第一个用户写入时才创建的key和分片库存一起过期（预加载时还不存在，设置不了过期时间）
+local ttl = redis.call('pttl', stockKey)
+if(ttl > 0 and redis.call('pttl', orderKey) == -1) then
+    redis.call('pexpire', orderKey, ttl)
+end
+local stock = tonumber(redis.call('get', stockKey))
+if(stock == nil or stock <= 0) then
+    --主分片卖完，返回3，由调用方到其它分片扣减，都没有库存时再移除用户
+    return 3
+end
+redis.call('incrby', stockKey, -1)
+return 0
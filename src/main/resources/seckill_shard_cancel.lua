@@ -0,0 +1,17 @@
+--归还分片库存秒杀券中没有生效的订单，把库存还给用户的主分片
+--KEYS[1]：主分片库存key KEYS[2]：主分片已下单用户key KEYS[3]：主分片已归还的订单id（SET）
+--ARGV[1]：订单ID ARGV[2]：用户ID ARGV[3]：1表示保留已下单用户（用户在库中已经有其它订单）
+--每个订单只归还一次，重复执行时不会多加
+if(redis.call('sadd', KEYS[3], ARGV[1]) == 0) then
+    return 0
+end
+local ttl = redis.call('pttl', KEYS[1])
+if(ttl > 0) then
+    redis.call('pexpire', KEYS[3], ttl)
+end
+--用户还在才归还库存
+if(ARGV[3] == '1' or redis.call('srem', KEYS[2], ARGV[2]) == 1) then
+    redis.call('incrby', KEYS[1], 1)
+    return 1
+end
+return 0
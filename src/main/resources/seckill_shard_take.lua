@@ -0,0 +1,9 @@
+--从一个分片扣减一个库存
+--KEYS[1]：分片库存key
+--返回 0：扣减成功 1：库存不足
+local stock = tonumber(redis.call('get', KEYS[1]))
+if(stock == nil or stock <= 0) then
+    return 1
+end
+redis.call('incrby', KEYS[1], -1)
+return 0
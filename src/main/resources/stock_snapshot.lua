@@ -0,0 +1,20 @@
+--同时读取秒杀券的库存和已下单人数，两个值来自同一时刻
+--KEYS[1]：秒杀券key（hash） KEYS[2]：已下单用户key（SET） KEYS[3]：已下单用户位图 KEYS[4]：分块的索引
+--ARGV[1]：分块位图key的前缀
+--返回 {库存, 已下单人数}，秒杀券还没有加载时库存返回-1
+local voucher = redis.call('hmget', KEYS[1], 'stock', 'buyers')
+if(voucher[1] == false) then
+    return {-1, 0}
+end
+local mode = voucher[2]
+local buyers = 0
+if(mode == 'BITMAP') then
+    buyers = redis.call('bitcount', KEYS[3])
+elseif(mode == 'CHUNKED_BITMAP') then
+    for _, chunk in ipairs(redis.call('smembers', KEYS[4])) do
+        buyers = buyers + redis.call('bitcount', ARGV[1] .. chunk)
+    end
+else
+    buyers = redis.call('scard', KEYS[2])
+end
+return {tonumber(voucher[1]), buyers}
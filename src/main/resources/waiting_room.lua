@@ -0,0 +1,69 @@
+--秒杀排队：按固定速率放行（令牌桶），返回用户的排队位置
+--KEYS[1]：用户的排队号（hash，用户id -> 号码） KEYS[2]：排队状态（hash，seq：已发出的号码 admitted：已放行的号码 ts：令牌计算到的时间） KEYS[3]：秒杀券key（hash）
+--ARGV[1]：用户ID ARGV[2]：当前时间（毫秒） ARGV[3]：每秒放行人数 ARGV[4]：排队人数上限与剩余库存的比例 ARGV[5]：排队数据的有效期（秒）
+local ticketKey = KEYS[1]
+local roomKey = KEYS[2]
+local voucherKey = KEYS[3]
+local userId = ARGV[1]
+local now = tonumber(ARGV[2])
+local rate = tonumber(ARGV[3])
+local factor = tonumber(ARGV[4])
+local ttl = tonumber(ARGV[5])
+--每放行一人需要的毫秒数，空闲时最多攒一秒的令牌
+local interval = 1000 / rate
+local burst = math.max(1, rate)
+
+--秒杀还没有开始（或者还没有预加载）时不取号也不推进放行进度，避免提前放行的人在开始时一起涌入，返回2
+local voucher = redis.call('hmget', voucherKey, 'stock', 'begin')
+if(voucher[2] == false or now < tonumber(voucher[2])) then
+    return {2, 0}
+end
+
+local seq = tonumber(redis.call('hget', roomKey, 'seq')) or 0
+local admitted = tonumber(redis.call('hget', roomKey, 'admitted')) or 0
+local ts = tonumber(redis.call('hget', roomKey, 'ts')) or (now - burst * interval)
+
+--按经过的时间计算令牌，空闲太久的时间不累计
+local tokens = math.floor((now - ts) / interval)
+if(tokens > burst) then
+    tokens = burst
+    ts = now - burst * interval
+end
+--先放行已经在排队的人
+local advance = math.min(tokens, seq - admitted)
+admitted = admitted + advance
+tokens = tokens - advance
+ts = ts + advance * interval
+
+--取号，已经取过号的用户沿用原来的号码
+local ticket = tonumber(redis.call('hget', ticketKey, userId))
+if(ticket == nil) then
+    --排队人数超过剩余库存的factor倍，后面的人已经不可能买到，直接拒绝；分片库存的券hash中没有stock，不做判断
+    local stock = tonumber(voucher[1])
+    if(stock ~= nil and seq - admitted >= stock * factor) then
+        redis.call('hset', roomKey, 'admitted', admitted, 'ts', math.floor(ts))
+        return {-1, seq - admitted}
+    end
+    seq = redis.call('hincrby', roomKey, 'seq', 1)
+    ticket = seq
+    redis.call('hset', ticketKey, userId, ticket)
+    if(redis.call('ttl', ticketKey) < 0) then
+        redis.call('expire', ticketKey, ttl)
+    end
+    --前面没有人排队、还有令牌时直接放行
+    if(ticket == admitted + 1 and tokens >= 1) then
+        admitted = ticket
+        ts = ts + interval
+    end
+end
+redis.call('hset', roomKey, 'admitted', admitted, 'ts', math.floor(ts))
+if(redis.call('ttl', roomKey) < 0) then
+    redis.call('expire', roomKey, ttl)
+end
+
+if(ticket <= admitted) then
+    --已经放行
+    return {0, 0}
+end
+--排队中，返回前面还有多少人
+return {1, ticket - admitted}
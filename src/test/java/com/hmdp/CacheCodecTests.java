@@ -0,0 +1,168 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodecException;
+import com.hmdp.utils.DelegatingCacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 缓存序列化方式的往返和损坏数据测试，不需要启动spring容器
+ */
+class CacheCodecTests {
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+
+    private final BinaryCacheCodec binary = new BinaryCacheCodec(512);
+
+    //写二进制、能读两种格式
+    private final DelegatingCacheCodec delegating = new DelegatingCacheCodec(true, json, binary);
+
+    @Test
+    public void binaryRoundTrip() {
+        Shop shop = sampleShop(3);
+        shop.setOpenHours(null);
+        Shop decoded = binary.decode(binary.encode(shop), Shop.class);
+        assertEquals(shop, decoded);
+        assertNull(decoded.getOpenHours());
+    }
+
+    @Test
+    public void binaryCompressesLargeValues() {
+        Shop shop = sampleShop(1000);
+        byte[] bytes = binary.encode(shop);
+        assertEquals(BinaryCacheCodec.MAGIC, bytes[0]);
+        assertTrue((bytes[1] & 1) != 0, "超过阈值的数据应该被压缩");
+        assertTrue(bytes.length < shop.getImages().length());
+        assertEquals(shop, binary.decode(bytes, Shop.class));
+    }
+
+    @Test
+    public void binaryListRoundTrip() {
+        List<Shop> shops = Arrays.asList(sampleShop(1), sampleShop(2), null);
+        assertEquals(shops, binary.decodeList(binary.encode(shops), Shop.class));
+        assertTrue(binary.decodeList(binary.encode(Collections.emptyList()), Shop.class).isEmpty());
+    }
+
+    @Test
+    public void binaryLogicalRoundTrip() {
+        RedisData redisData = new RedisData();
+        redisData.setData(sampleShop(3));
+        redisData.setExpireTime(LocalDateTime.of(2030, 1, 1, 12, 30, 15));
+        redisData.setRebuildCost(35L);
+        RedisData decoded = binary.decodeLogical(binary.encodeLogical(redisData), Shop.class);
+        assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+        assertEquals(35L, decoded.getRebuildCost());
+        assertEquals(redisData.getData(), decoded.getData());
+
+        redisData.setRebuildCost(null);
+        assertNull(binary.decodeLogical(binary.encodeLogical(redisData), Shop.class).getRebuildCost());
+    }
+
+    @Test
+    public void jsonRoundTrip() {
+        Shop shop = sampleShop(3);
+        Shop decoded = json.decode(json.encode(shop), Shop.class);
+        assertEquals(shop.getId(), decoded.getId());
+        assertEquals(shop.getName(), decoded.getName());
+        assertEquals(shop.getAvgPrice(), decoded.getAvgPrice());
+        assertEquals(shop.getX(), decoded.getX());
+
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        redisData.setRebuildCost(12L);
+        RedisData logical = json.decodeLogical(json.encodeLogical(redisData), Shop.class);
+        assertNotNull(logical.getExpireTime());
+        assertEquals(12L, logical.getRebuildCost());
+        assertEquals(shop.getName(), ((Shop) logical.getData()).getName());
+    }
+
+    @Test
+    public void delegatingReadsBothFormats() {
+        Shop shop = sampleShop(3);
+        byte[] written = delegating.encode(shop);
+        assertEquals(BinaryCacheCodec.MAGIC, written[0]);
+        assertEquals(shop, delegating.decode(written, Shop.class));
+        //切换格式前写入的JSON数据仍然可以读取
+        Shop old = delegating.decode(json.encode(shop), Shop.class);
+        assertEquals(shop.getName(), old.getName());
+        List<ShopType> types = Collections.singletonList(sampleType());
+        assertEquals("美食", delegating.decodeList(json.encode(types), ShopType.class).get(0).getName());
+    }
+
+    @Test
+    public void corruptedBinaryThrowsCodecException() {
+        byte[] bytes = binary.encode(sampleShop(3));
+        //截断的数据
+        assertThrows(CacheCodecException.class,
+                () -> delegating.decode(Arrays.copyOf(bytes, bytes.length - 3), Shop.class));
+        assertThrows(CacheCodecException.class,
+                () -> delegating.decode(new byte[]{BinaryCacheCodec.MAGIC, 0}, Shop.class));
+        assertThrows(CacheCodecException.class,
+                () -> delegating.decodeList(new byte[]{BinaryCacheCodec.MAGIC, 2, 5}, Shop.class));
+        assertThrows(CacheCodecException.class,
+                () -> delegating.decodeLogical(new byte[]{BinaryCacheCodec.MAGIC, 4}, Shop.class));
+        //压缩数据中损坏的原始长度
+        assertThrows(CacheCodecException.class,
+                () -> delegating.decode(new byte[]{BinaryCacheCodec.MAGIC, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                        (byte) 0xFF, 0x07, 1, 2, 3}, Shop.class));
+        //类的字段变化后读到的旧数据
+        assertThrows(CacheCodecException.class, () -> delegating.decode(bytes, ShopType.class));
+    }
+
+    @Test
+    public void invalidJsonThrowsCodecException() {
+        byte[] truncated = "{\"id\":1,\"name\":".getBytes(StandardCharsets.UTF_8);
+        assertThrows(CacheCodecException.class, () -> delegating.decode(truncated, Shop.class));
+        assertThrows(CacheCodecException.class,
+                () -> delegating.decode("not json".getBytes(StandardCharsets.UTF_8), Shop.class));
+        assertThrows(CacheCodecException.class, () -> delegating.decodeList(truncated, Shop.class));
+        assertThrows(CacheCodecException.class, () -> delegating.decodeLogical(truncated, Shop.class));
+    }
+
+    private static Shop sampleShop(int images) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < images; i++) {
+            sb.append(i == 0 ? "" : ",").append("https://qcloud.video.qq.com/shop/").append(i).append(".jpg");
+        }
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages(sb.toString())
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+    }
+
+    private static ShopType sampleType() {
+        ShopType type = new ShopType();
+        type.setId(1L);
+        type.setName("美食");
+        type.setSort(1);
+        return type;
+    }
+}
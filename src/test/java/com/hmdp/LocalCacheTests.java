@@ -0,0 +1,57 @@
+package com.hmdp;
+
+import com.hmdp.utils.LocalCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分段本地缓存的容量和过期测试，不需要启动spring容器
+ */
+class LocalCacheTests {
+
+    @Test
+    public void sizeNeverExceedsMaximum() {
+        LocalCache<Integer, Integer> cache = new LocalCache<>(100, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertTrue(cache.size() <= 100);
+        assertEquals(999, cache.get(999));
+    }
+
+    @Test
+    public void smallCacheKeepsOneEntry() {
+        LocalCache<String, String> cache = new LocalCache<>(1, 1, TimeUnit.MINUTES);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals(1, cache.size());
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+    }
+
+    @Test
+    public void expiredEntriesAreDropped() throws InterruptedException {
+        LocalCache<String, String> cache = new LocalCache<>(10, 20, TimeUnit.MILLISECONDS);
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        Thread.sleep(40);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void removeAndClear() {
+        LocalCache<String, String> cache = new LocalCache<>(10, 1, TimeUnit.MINUTES);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,175 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.BuyerTracking;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已下单用户的三种记录方式对比：SET、BITMAP、CHUNKED_BITMAP
+ * 先写入buyers个用户，打印redis中占用的内存（MEMORY USAGE），再测量判断用户是否下过单的延迟
+ * dense：用户id为 1 ~ buyers；sparse：用户id在 1 ~ buyers*64 之间随机
+ *
+ * 需要本地redis：-Dbenchmark.redis.uri=redis://127.0.0.1:6379，1千万用户的SET需要1GB左右的内存
+ * 运行方式：在IDE中直接运行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuyerTrackingBenchmark {
+
+    private static final Long VOUCHER_ID = 900001L;
+
+    private static final String SET_KEY = "benchmark:buyers:set";
+
+    @Param({"100000", "1000000", "10000000"})
+    private int buyers;
+
+    @Param({"SET", "BITMAP", "CHUNKED_BITMAP"})
+    private BuyerTracking tracking;
+
+    @Param({"dense", "sparse"})
+    private String distribution;
+
+    private RedisClient client;
+
+    private StatefulRedisConnection<String, String> connection;
+
+    private RedisCommands<String, String> commands;
+
+    private long[] userIds;
+
+    private final SplittableRandom random = new SplittableRandom(7);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        client = RedisClient.create(System.getProperty("benchmark.redis.uri", "redis://127.0.0.1:6379"));
+        connection = client.connect();
+        commands = connection.sync();
+        clear();
+        long range = "dense".equals(distribution) ? buyers : (long) buyers * 64;
+        userIds = new long[buyers];
+        for (int i = 0; i < buyers; i++) {
+            userIds[i] = "dense".equals(distribution) ? i + 1 : 1 + random.nextLong(range);
+        }
+        fill();
+        System.out.printf("%n%s %s buyers=%d memory=%d bytes%n", tracking, distribution, buyers, memory());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clear();
+        connection.close();
+        client.shutdown();
+    }
+
+    /**
+     * 和seckill.lua中一样判断一个已下单用户
+     */
+    @Benchmark
+    public boolean contains() {
+        long userId = userIds[random.nextInt(buyers)];
+        switch (tracking) {
+            case BITMAP:
+                return commands.getbit(BuyerTracking.bitmapKey(VOUCHER_ID), userId) == 1;
+            case CHUNKED_BITMAP:
+                return commands.getbit(BuyerTracking.chunkKey(VOUCHER_ID, userId), BuyerTracking.chunkOffset(userId)) == 1;
+            default:
+                return commands.sismember(SET_KEY, String.valueOf(userId));
+        }
+    }
+
+    private void fill() {
+        RedisAsyncCommands<String, String> async = connection.async();
+        connection.setAutoFlushCommands(false);
+        List<RedisFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < buyers; i++) {
+            long userId = userIds[i];
+            switch (tracking) {
+                case BITMAP:
+                    futures.add(async.setbit(BuyerTracking.bitmapKey(VOUCHER_ID), userId, 1));
+                    break;
+                case CHUNKED_BITMAP:
+                    futures.add(async.setbit(BuyerTracking.chunkKey(VOUCHER_ID, userId), BuyerTracking.chunkOffset(userId), 1));
+                    futures.add(async.sadd(BuyerTracking.chunkIndexKey(VOUCHER_ID), String.valueOf(BuyerTracking.chunk(userId))));
+                    break;
+                default:
+                    futures.add(async.sadd(SET_KEY, String.valueOf(userId)));
+            }
+            if (futures.size() >= 10000) {
+                flush(futures);
+            }
+        }
+        flush(futures);
+        connection.setAutoFlushCommands(true);
+    }
+
+    private void flush(List<RedisFuture<?>> futures) {
+        connection.flushCommands();
+        for (RedisFuture<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        futures.clear();
+    }
+
+    private long memory() {
+        switch (tracking) {
+            case BITMAP:
+                return commands.memoryUsage(BuyerTracking.bitmapKey(VOUCHER_ID));
+            case CHUNKED_BITMAP:
+                long total = commands.memoryUsage(BuyerTracking.chunkIndexKey(VOUCHER_ID));
+                for (String chunk : commands.smembers(BuyerTracking.chunkIndexKey(VOUCHER_ID))) {
+                    total += commands.memoryUsage(BuyerTracking.bitmapKey(VOUCHER_ID) + ":" + chunk);
+                }
+                return total;
+            default:
+                return commands.memoryUsage(SET_KEY);
+        }
+    }
+
+    private void clear() {
+        for (String chunk : commands.smembers(BuyerTracking.chunkIndexKey(VOUCHER_ID))) {
+            commands.del(BuyerTracking.bitmapKey(VOUCHER_ID) + ":" + chunk);
+        }
+        commands.del(SET_KEY, BuyerTracking.bitmapKey(VOUCHER_ID), BuyerTracking.chunkIndexKey(VOUCHER_ID));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BuyerTrackingBenchmark.class.getSimpleName())
+                .jvmArgsAppend(System.getProperties().stringPropertyNames().stream()
+                        .filter(name -> name.startsWith("benchmark."))
+                        .map(name -> "-D" + name + "=" + System.getProperty(name))
+                        .toArray(String[]::new))
+                .build()).run();
+    }
+}
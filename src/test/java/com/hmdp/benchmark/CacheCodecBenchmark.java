@@ -0,0 +1,129 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存序列化方式对比：当前的Hutool JSON路径 vs 二进制格式
+ * 运行方式：在IDE中直接运行main方法，或者 mvn test-compile 后用 exec:java 运行
+ * main方法会先打印两种格式序列化后的字节数，再运行JMH
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+    private final BinaryCacheCodec binaryCodec = new BinaryCacheCodec(512);
+
+    private Shop shop;
+    private RedisData redisData;
+    private String hutoolJson;
+    private String hutoolLogicalJson;
+    private byte[] binary;
+    private byte[] binaryLogical;
+
+    @Setup
+    public void setup() {
+        shop = sampleShop();
+        redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        hutoolJson = JSONUtil.toJsonStr(shop);
+        hutoolLogicalJson = JSONUtil.toJsonStr(redisData);
+        binary = binaryCodec.encode(shop);
+        binaryLogical = binaryCodec.encodeLogical(redisData);
+    }
+
+    @Benchmark
+    public String hutoolEncode() {
+        return JSONUtil.toJsonStr(shop);
+    }
+
+    @Benchmark
+    public Shop hutoolDecode() {
+        return JSONUtil.toBean(hutoolJson, Shop.class);
+    }
+
+    /**
+     * 原来queryWithLogicalExpire的写法：先解析RedisData，再把data转一次
+     */
+    @Benchmark
+    public Shop hutoolDecodeLogical() {
+        RedisData data = JSONUtil.toBean(hutoolLogicalJson, RedisData.class);
+        return JSONUtil.toBean((JSONObject) data.getData(), Shop.class);
+    }
+
+    @Benchmark
+    public Object jsonCodecDecodeLogical() {
+        return jsonCodec.decodeLogical(hutoolLogicalJson.getBytes(StandardCharsets.UTF_8), Shop.class).getData();
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return binaryCodec.encode(shop);
+    }
+
+    @Benchmark
+    public Shop binaryDecode() {
+        return binaryCodec.decode(binary, Shop.class);
+    }
+
+    @Benchmark
+    public Object binaryDecodeLogical() {
+        return binaryCodec.decodeLogical(binaryLogical, Shop.class).getData();
+    }
+
+    static Shop sampleShop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg,"
+                + "https://qcloud.dpfile.com/pc/IOf6VX3qaBgFXFVgp75w-KKJmWZjFc8GXDU8g9bQC6YGCpAmG00QbfT4vCCBj7njuzFvxlbkWx5uwqY2qcjixFEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vmIU_8ZGOT1OjpJmLxG6urQ.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Shop shop = sampleShop();
+        System.out.println("hutool json bytes = " + JSONUtil.toJsonStr(shop).getBytes(StandardCharsets.UTF_8).length);
+        System.out.println("binary bytes = " + new BinaryCacheCodec(0).encode(shop).length);
+        System.out.println("binary + lz4 bytes = " + new BinaryCacheCodec(128).encode(shop).length);
+        new Runner(new OptionsBuilder().include(CacheCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
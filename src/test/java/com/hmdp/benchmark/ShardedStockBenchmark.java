@@ -0,0 +1,139 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.io.resource.ResourceUtil;
+import com.hmdp.utils.SeckillShards;
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.sync.RedisClusterCommands;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 秒杀库存分片的吞吐量（下单次数/秒），分片数量K = 1、2、4、8
+ * 执行的脚本和VoucherOrderServiceImpl的分片路径相同：主分片判断一人一单并扣减，卖完后向后面的分片借库存
+ *
+ * 分片的意义在于把一个券的流量分到多个redis节点，需要本地启动多实例的redis集群：
+ * -Dbenchmark.redis.cluster=redis://127.0.0.1:7000
+ * 不指定时连接单个redis（-Dbenchmark.redis.uri，默认redis://127.0.0.1:6379），作为K=1的对照
+ * 运行方式：在IDE中直接运行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Threads(32)
+@Fork(1)
+public class ShardedStockBenchmark {
+
+    private static final long VOUCHER_ID = 900000L;
+
+    //每个分片的库存，足够整个测试期间不会卖完
+    private static final int SHARD_STOCK = 100_000_000;
+
+    @Param({"1", "2", "4", "8"})
+    private int shards;
+
+    private final AtomicLong nextUserId = new AtomicLong();
+
+    private AbstractRedisClient client;
+
+    private StatefulConnection<String, String> connection;
+
+    private RedisClusterCommands<String, String> commands;
+
+    private String shardScript;
+
+    private String takeScript;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String cluster = System.getProperty("benchmark.redis.cluster");
+        if (cluster != null) {
+            RedisClusterClient clusterClient = RedisClusterClient.create(cluster);
+            StatefulRedisClusterConnection<String, String> clusterConnection = clusterClient.connect();
+            client = clusterClient;
+            connection = clusterConnection;
+            commands = clusterConnection.sync();
+        } else {
+            RedisClient redisClient = RedisClient.create(System.getProperty("benchmark.redis.uri", "redis://127.0.0.1:6379"));
+            StatefulRedisConnection<String, String> redisConnection = redisClient.connect();
+            client = redisClient;
+            connection = redisConnection;
+            commands = redisConnection.sync();
+        }
+        shardScript = ResourceUtil.readStr("seckill_shard.lua", StandardCharsets.UTF_8);
+        takeScript = ResourceUtil.readStr("seckill_shard_take.lua", StandardCharsets.UTF_8);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        for (int i = 0; i < shards; i++) {
+            commands.set(SeckillShards.stockKey(VOUCHER_ID, i), String.valueOf(SHARD_STOCK));
+            commands.del(SeckillShards.orderKey(VOUCHER_ID, i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (int i = 0; i < shards; i++) {
+            commands.del(SeckillShards.stockKey(VOUCHER_ID, i), SeckillShards.orderKey(VOUCHER_ID, i));
+        }
+        connection.close();
+        client.shutdown();
+    }
+
+    @Benchmark
+    public long seckill() {
+        long userId = nextUserId.incrementAndGet();
+        int home = SeckillShards.homeShard(userId, shards);
+        Long code = commands.eval(shardScript, ScriptOutputType.INTEGER,
+                new String[]{SeckillShards.stockKey(VOUCHER_ID, home), SeckillShards.orderKey(VOUCHER_ID, home)},
+                String.valueOf(userId));
+        if (code != 3) {
+            return code;
+        }
+        for (int i = 1; i < shards; i++) {
+            Long took = commands.eval(takeScript, ScriptOutputType.INTEGER,
+                    SeckillShards.stockKey(VOUCHER_ID, (home + i) % shards));
+            if (took == 0) {
+                return 0;
+            }
+        }
+        commands.srem(SeckillShards.orderKey(VOUCHER_ID, home), String.valueOf(userId));
+        return 1;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ShardedStockBenchmark.class.getSimpleName())
+                .jvmArgsAppend(System.getProperties().stringPropertyNames().stream()
+                        .filter(name -> name.startsWith("benchmark."))
+                        .map(name -> "-D" + name + "=" + System.getProperty(name))
+                        .toArray(String[]::new))
+                .build()).run();
+    }
+}
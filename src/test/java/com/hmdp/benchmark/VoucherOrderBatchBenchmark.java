@@ -0,0 +1,180 @@
+package com.hmdp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单写入吞吐量对比（订单数/秒）：逐条写入 vs 批量写入
+ * 逐条：每个订单一个事务，COUNT(*) + stock = stock - 1 + 单行INSERT，和createVoucherOrder相同
+ * 批量：每批一个事务，查询已存在的订单和用户 + stock = stock - k + 多行INSERT，和createVoucherOrders相同
+ *
+ * 默认使用内存中的H2（MySQL模式），也可以指定本地MySQL（建议使用单独的库）：
+ * -Dbenchmark.jdbc.url=jdbc:mysql://127.0.0.1:3306/hmdp_bench -Dbenchmark.jdbc.user=root -Dbenchmark.jdbc.password=123
+ * 每次运行新建带随机后缀的临时表（结构和tb_voucher_order、tb_seckill_voucher相同），结束时删除，不会读写业务表
+ * 运行方式：在IDE中直接运行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VoucherOrderBatchBenchmark {
+
+    private static final int BATCH_SIZE = 50;
+
+    private static final long VOUCHER_ID = 1L;
+
+    private Connection connection;
+
+    //本次运行的临时表
+    private String orderTable;
+    private String voucherTable;
+
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        String url = System.getProperty("benchmark.jdbc.url", "jdbc:h2:mem:hmdp;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        connection = DriverManager.getConnection(url,
+                System.getProperty("benchmark.jdbc.user", "sa"), System.getProperty("benchmark.jdbc.password", ""));
+        String suffix = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+        orderTable = "bench_voucher_order_" + suffix;
+        voucherTable = "bench_seckill_voucher_" + suffix;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE " + orderTable + " (id BIGINT NOT NULL PRIMARY KEY, "
+                    + "user_id BIGINT NOT NULL, voucher_id BIGINT NOT NULL, pay_type TINYINT NOT NULL DEFAULT 1, "
+                    + "status TINYINT NOT NULL DEFAULT 1, create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+            statement.execute("CREATE TABLE " + voucherTable + " (voucher_id BIGINT NOT NULL PRIMARY KEY, "
+                    + "stock INT NOT NULL)");
+            statement.execute("INSERT INTO " + voucherTable + " (voucher_id, stock) VALUES (" + VOUCHER_ID + ", 2000000000)");
+        }
+        connection.setAutoCommit(false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP TABLE IF EXISTS " + orderTable);
+                statement.execute("DROP TABLE IF EXISTS " + voucherTable);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void singleInsert() throws SQLException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            long id = ++nextId;
+            try (PreparedStatement count = connection.prepareStatement(
+                    "SELECT COUNT(*) FROM " + orderTable + " WHERE user_id = ? AND voucher_id = ? AND status <> 4");
+                 PreparedStatement update = connection.prepareStatement(
+                         "UPDATE " + voucherTable + " SET stock = stock - 1 WHERE voucher_id = ? AND stock > 0");
+                 PreparedStatement insert = connection.prepareStatement(
+                         "INSERT INTO " + orderTable + " (id, user_id, voucher_id) VALUES (?, ?, ?)")) {
+                count.setLong(1, id);
+                count.setLong(2, VOUCHER_ID);
+                try (ResultSet rs = count.executeQuery()) {
+                    rs.next();
+                }
+                update.setLong(1, VOUCHER_ID);
+                update.executeUpdate();
+                insert.setLong(1, id);
+                insert.setLong(2, id);
+                insert.setLong(3, VOUCHER_ID);
+                insert.executeUpdate();
+            }
+            connection.commit();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void batchInsert() throws SQLException {
+        long first = nextId + 1;
+        nextId += BATCH_SIZE;
+        String in = placeholders(BATCH_SIZE);
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            values.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+        }
+        try (PreparedStatement exists = connection.prepareStatement(
+                "SELECT id FROM " + orderTable + " WHERE id IN (" + in + ")");
+             PreparedStatement bought = connection.prepareStatement(
+                     "SELECT user_id, voucher_id FROM " + orderTable + " WHERE voucher_id IN (?) AND user_id IN (" + in + ") AND status <> 4");
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE " + voucherTable + " SET stock = stock - ? WHERE voucher_id = ? AND stock >= ?");
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO " + orderTable + " (id, user_id, voucher_id) VALUES " + values)) {
+            bought.setLong(1, VOUCHER_ID);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                exists.setLong(i + 1, first + i);
+                bought.setLong(i + 2, first + i);
+                insert.setLong(i * 3 + 1, first + i);
+                insert.setLong(i * 3 + 2, first + i);
+                insert.setLong(i * 3 + 3, VOUCHER_ID);
+            }
+            try (ResultSet rs = exists.executeQuery()) {
+                while (rs.next()) {
+                    rs.getLong(1);
+                }
+            }
+            try (ResultSet rs = bought.executeQuery()) {
+                while (rs.next()) {
+                    rs.getLong(1);
+                }
+            }
+            update.setInt(1, BATCH_SIZE);
+            update.setLong(2, VOUCHER_ID);
+            update.setInt(3, BATCH_SIZE);
+            update.executeUpdate();
+            insert.executeUpdate();
+        }
+        connection.commit();
+    }
+
+    private static String placeholders(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(VoucherOrderBatchBenchmark.class.getSimpleName())
+                .jvmArgsAppend(System.getProperties().stringPropertyNames().stream()
+                        .filter(name -> name.startsWith("benchmark."))
+                        .map(name -> "-D" + name + "=" + System.getProperty(name))
+                        .toArray(String[]::new))
+                .build()).run();
+    }
+}